@@ -0,0 +1,179 @@
+package adfgvx.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import adfgvx.Analysis;
+import adfgvx.Grid;
+import adfgvx.Main;
+import adfgvx.Pattern;
+import adfgvx.PolybiusSquare;
+import adfgvx.Tetragram;
+
+/**
+ * Loads the reference files once per benchmark process and generates seeded
+ * inputs. The files are read from the directory in the system property
+ * <code>adfgvx.data</code>, which defaults to the parent directory so that
+ * the benchmarks can be run from the <code>bench</code> directory.
+ * 
+ * Logging is limited to warnings, so that the solver does not spend the
+ * measured time on log output.
+ * 
+ * @author Ben Ruijl
+ * 
+ */
+public final class BenchmarkData {
+    /** Directory of the reference files. */
+    private static final File DATA_DIR = new File(System.getProperty(
+            "adfgvx.data", ".."));
+
+    /** Source text. */
+    private static String text;
+    /** Reference tetragram table. */
+    private static Tetragram tetragram;
+
+    static {
+        BasicConfigurator.configure();
+        Logger.getRootLogger().setLevel(Level.WARN);
+    }
+
+    /**
+     * Private constructor, this class only has static functions.
+     */
+    private BenchmarkData() {
+    }
+
+    /**
+     * Gets the source text.
+     * 
+     * @return Source text of upper case letters
+     */
+    public static synchronized String getText() {
+        if (text == null) {
+            text = Main.readCipher(new File(DATA_DIR, "kjv10.txt").getPath());
+        }
+
+        return text;
+    }
+
+    /**
+     * Gets the reference tetragram table.
+     * 
+     * @return Tetragram table
+     * @throws IOException
+     *             Error while reading the table
+     */
+    public static synchronized Tetragram getTetragram() throws IOException {
+        if (tetragram == null) {
+            tetragram = new Tetragram(new File(DATA_DIR, "tetagrams.dat")
+                    .getPath());
+        }
+
+        return tetragram;
+    }
+
+    /**
+     * Creates an analyzer on the reference tetragram table. The caller shuts it down
+     * when it is done.
+     * 
+     * @return Analyzer
+     * @throws IOException
+     *             Error while reading the table
+     */
+    public static Analysis createAnalysis() throws IOException {
+        return new Analysis(new Pattern(), getTetragram());
+    }
+
+    /**
+     * Picks a random piece of the source text.
+     * 
+     * @param length
+     *            Length of the piece
+     * @param random
+     *            Random number generator
+     * @return Piece of plain text
+     */
+    public static String plainText(final int length, final Random random) {
+        final String source = getText();
+        final int start = random.nextInt(source.length() - length);
+        return source.substring(start, start + length);
+    }
+
+    /**
+     * Encrypts a random piece of the source text with a random square and
+     * key, and writes the whole cipher text into a new grid.
+     * 
+     * @param keyLength
+     *            Length of the transposition key
+     * @param textLength
+     *            Number of plain text characters
+     * @param random
+     *            Random number generator
+     * @return Grid of the cipher text
+     */
+    public static Grid cipherGrid(final int keyLength, final int textLength,
+            final Random random) {
+        final byte[] cipherText = cipherText(keyLength, textLength, random);
+
+        final Grid cipherGrid = new Grid(keyLength);
+        cipherGrid.add(cipherText, cipherText.length);
+        return cipherGrid;
+    }
+
+    /**
+     * Encrypts a random piece of the source text with a random square and
+     * key, and writes the full rows of the cipher text into a new grid, as
+     * the solver groups and arranges it. Which columns have a symbol in the
+     * last row depends on the key, so the solver leaves that row out.
+     * 
+     * @param keyLength
+     *            Length of the transposition key
+     * @param textLength
+     *            Number of plain text characters
+     * @param random
+     *            Random number generator
+     * @return Grid of the full rows of the cipher text
+     */
+    public static Grid cipherRows(final int keyLength, final int textLength,
+            final Random random) {
+        final byte[] cipherText = cipherText(keyLength, textLength, random);
+
+        final Grid cipherGrid = new Grid(keyLength);
+        cipherGrid.add(cipherText, cipherText.length - cipherText.length
+                % keyLength);
+        return cipherGrid;
+    }
+
+    /**
+     * Encrypts a random piece of the source text with a random square and
+     * key.
+     * 
+     * @param keyLength
+     *            Length of the transposition key
+     * @param textLength
+     *            Number of plain text characters
+     * @param random
+     *            Random number generator
+     * @return Indices in <code>keyName</code> of the cipher text symbols
+     */
+    private static byte[] cipherText(final int keyLength,
+            final int textLength, final Random random) {
+        final PolybiusSquare square = PolybiusSquare
+                .generateRandomSquare(random);
+        final List<Integer> key = Grid.generateRandomKey(keyLength, random);
+
+        final Grid grid = new Grid(keyLength);
+        grid.add(square.fraction(plainText(textLength, random)));
+        grid.switchColumns(key);
+
+        final byte[] cipherText = new byte[grid.size()];
+        grid.encode(cipherText);
+        return cipherText;
+    }
+}
@@ -0,0 +1,107 @@
+package adfgvx.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adfgvx.Column;
+import adfgvx.Grid;
+import adfgvx.PolybiusSquare;
+
+/**
+ * Benchmarks of the byte kernels that convert between plain text, the
+ * fractionated text and the transposition grid. None of them allocate, so the
+ * output buffers are made once.
+ * 
+ * @author Ben Ruijl
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FractionBenchmark {
+    /** Length of the transposition key. */
+    @Param({ "6", "8", "10", "12" })
+    public int keyLength;
+
+    /** Number of plain text characters. */
+    @Param({ "500", "5000" })
+    public int textLength;
+
+    /** Seed of the inputs. */
+    @Param({ "42" })
+    public long seed;
+
+    /** Square to fraction with. */
+    private PolybiusSquare square;
+    /** Plain text as characters. */
+    private byte[] plainText;
+    /** Buffer of the fractionated text. */
+    private byte[] fractionated;
+    /** Grid of the cipher text. */
+    private Grid grid;
+    /** Grid columns that map to columns in the Polybius square. */
+    private List<Column> col;
+    /** Grid columns that map to rows in the Polybius square. */
+    private List<Column> row;
+    /** Buffer of the unfractionated text. */
+    private byte[] unfractionated;
+    /** Buffer of the cipher text. */
+    private byte[] cipherText;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(seed);
+
+        square = PolybiusSquare.generateRandomSquare(random);
+        plainText = BenchmarkData.plainText(textLength, random).getBytes(
+                StandardCharsets.ISO_8859_1);
+        fractionated = new byte[2 * textLength];
+
+        grid = BenchmarkData.cipherGrid(keyLength, textLength, random);
+        cipherText = new byte[grid.size()];
+
+        // the kernel does the same work for any split, so alternate them
+        col = new ArrayList<Column>();
+        row = new ArrayList<Column>();
+        final List<Column> gridData = grid.getGrid();
+        for (int i = 0; i < gridData.size(); i++) {
+            (i % 2 == 0 ? col : row).add(gridData.get(i));
+        }
+
+        unfractionated = new byte[PolybiusSquare.unFractionLength(row, col)];
+    }
+
+    @Benchmark
+    public byte[] fraction() {
+        square.fraction(plainText, plainText.length, fractionated);
+        return fractionated;
+    }
+
+    @Benchmark
+    public int unFraction() {
+        return PolybiusSquare.unFraction(row, col, unfractionated);
+    }
+
+    @Benchmark
+    public int encode() {
+        return grid.encode(cipherText);
+    }
+}
@@ -0,0 +1,101 @@
+package adfgvx.bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adfgvx.Analysis;
+import adfgvx.Encryption;
+import adfgvx.Substitution;
+import adfgvx.SubstitutionState;
+import adfgvx.Tetragram;
+
+/**
+ * Benchmarks of the monoalphabetic substitution solver: the tetragram fitness
+ * function and the two searches that call it. The cipher text is a seeded
+ * piece of the source text under a seeded substitution, and every search
+ * starts from the same seeded substitution, so that every invocation does the
+ * same work.
+ * 
+ * @author Ben Ruijl
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubstitutionBenchmark {
+    /** Length of the cipher text. */
+    @Param({ "100", "400", "1600" })
+    public int textLength;
+
+    /** Seed of the inputs. */
+    @Param({ "42" })
+    public long seed;
+
+    /** Reference tetragram table. */
+    private Tetragram tetragram;
+    /** Analyzer with the searches. */
+    private Analysis analysis;
+    /** Cipher text as indices in <code>plainAlphabet</code>. */
+    private byte[] cipherText;
+    /** Substitution to score and to start the searches from. */
+    private Substitution start;
+    /** Solver state, reset before every search. */
+    private SubstitutionState state;
+
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(seed);
+
+        tetragram = BenchmarkData.getTetragram();
+        analysis = BenchmarkData.createAnalysis();
+
+        final byte[] plainText = Encryption.toSymbols(BenchmarkData
+                .plainText(textLength, random));
+        cipherText = new byte[plainText.length];
+        Encryption.transcribe(plainText, Substitution.random(random),
+                cipherText);
+
+        start = Substitution.random(random);
+        state = new SubstitutionState(tetragram, cipherText, start);
+    }
+
+    @TearDown
+    public void tearDown() {
+        analysis.shutdown();
+    }
+
+    @Benchmark
+    public double fitness() {
+        return tetragram.fitness(cipherText, start);
+    }
+
+    @Benchmark
+    public double hillClimb() {
+        state.reset(start);
+        return analysis.hillClimb(state);
+    }
+
+    @Benchmark
+    public double simmulatedAnnealing() {
+        state.reset(start);
+        return analysis.simmulatedAnnealing(state, new Random(seed), 0.01,
+                0.99, 800);
+    }
+}
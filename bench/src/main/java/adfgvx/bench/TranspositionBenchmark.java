@@ -0,0 +1,103 @@
+package adfgvx.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import adfgvx.Budget;
+import adfgvx.Column;
+import adfgvx.ColumnStatistics;
+import adfgvx.Grid;
+import adfgvx.Pattern;
+import adfgvx.RowIdentifier;
+
+/**
+ * Benchmarks of the transposition solver: the grouping of the grid columns
+ * into columns and rows of the Polybius square, and the search for their
+ * order. Both run on the full rows of the grid, like in the solver. The
+ * order is searched on the grouping that the solver finds, and the search
+ * starts from the same seed on every invocation.
+ * 
+ * @author Ben Ruijl
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranspositionBenchmark {
+    /** Length of the transposition key. */
+    @Param({ "6", "8", "10", "12" })
+    public int keyLength;
+
+    /** Number of plain text characters, so twice the cipher text length. */
+    @Param({ "500" })
+    public int textLength;
+
+    /** Seed of the inputs. */
+    @Param({ "42" })
+    public long seed;
+
+    /** Transposition solver. */
+    private Pattern pattern;
+    /** Grid of the full rows of the cipher text. */
+    private Grid grid;
+    /** Grid columns that map to columns in the Polybius square. */
+    private List<Column> col;
+    /** Grid columns that map to rows in the Polybius square. */
+    private List<Column> row;
+
+    @Setup
+    public void setUp() {
+        pattern = new Pattern();
+        grid = BenchmarkData.cipherRows(keyLength, textLength, new Random(
+                seed));
+
+        final long colMask = RowIdentifier.findOptimalGrouping(ColumnStatistics
+                .fromGrid(grid));
+
+        col = new ArrayList<Column>();
+        row = new ArrayList<Column>();
+        final List<Column> gridData = grid.getGrid();
+        for (int i = 0; i < gridData.size(); i++) {
+            if ((colMask & (1L << i)) != 0) {
+                col.add(gridData.get(i));
+            } else {
+                row.add(gridData.get(i));
+            }
+        }
+    }
+
+    @Benchmark
+    public long findOptimalGrouping() {
+        return RowIdentifier.findOptimalGrouping(ColumnStatistics
+                .fromGrid(grid));
+    }
+
+    @Benchmark
+    public List<Column> findOptimalPatternDistribution() {
+        // the search orders the lists in place
+        final List<Column> charCol = new ArrayList<Column>(col);
+        final List<Column> charRow = new ArrayList<Column>(row);
+
+        pattern.findOptimalPatternDistribution(charCol, charRow, new Budget(
+                0, TimeUnit.NANOSECONDS, Pattern.DEFAULT_SEARCH_EVALUATIONS),
+                new Random(seed));
+        return charCol;
+    }
+}
@@ -3,7 +3,9 @@ package adfgvx;
 import gnu.trove.TObjectIntHashMap;
 import gnu.trove.TObjectIntProcedure;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -11,6 +13,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
@@ -31,6 +36,15 @@ import utils.Utils;
 public class Analysis {
     /** Logger. */
     private static final Logger LOG = Logger.getLogger(Analysis.class);
+    /** Metrics. */
+    private static final Metrics METRICS = Metrics.getInstance();
+
+    /** Length of the key of a default analysis. */
+    public static final int DEFAULT_KEY_LENGTH = 8;
+    /** Number of full rows of the grid of a default analysis. */
+    private static final int DEFAULT_ROWS = 50;
+    /** Number of restarts of the substitution search of a decryption. */
+    private static final int RESTARTS = 60;
 
     /** Random number generator. */
     private final Random random;
@@ -38,6 +52,12 @@ public class Analysis {
     private final Pattern pattern;
     /** tetragram solver. */
     private final Tetragram tetragram;
+    /** Parallel restarts of the monoalphabetic substitution solver. */
+    private volatile RestartSearch restartSearch;
+    /** Exhaustive search of the arrangements of the transposition. */
+    private volatile ArrangementSearch arrangementSearch;
+    /** Pool that this analyzer created, or <code>null</code>. */
+    private ForkJoinPool ownPool;
 
     /** Number of correct decryptions. */
     private int correctAnalysis = 0;
@@ -55,121 +75,266 @@ public class Analysis {
 	this.tetragram = tetragram;
 
 	random = new Random();
+	final ForkJoinPool pool = new ForkJoinPool();
+	setExecutor(pool, pool.getParallelism());
+	ownPool = pool;
     }
 
+    /**
+     * Sets the executor that runs the restarts of the monoalphabetic
+     * substitution solver and the exhaustive search of the transposition. The
+     * pool that the analyzer created itself is shut down. The caller keeps
+     * ownership of the given executor.
+     * 
+     * @param executor
+     *            Executor, for example a fork-join pool
+     * @param parallelism
+     *            Number of threads of the executor
+     */
+    public synchronized void setExecutor(final ExecutorService executor,
+	    final int parallelism) {
+	restartSearch = new RestartSearch(this, tetragram, executor,
+		parallelism);
+	arrangementSearch = new ArrangementSearch(executor, parallelism);
+
+	if (ownPool != null && ownPool != executor) {
+	    ownPool.shutdown();
+	    ownPool = null;
+	}
+    }
+
+    /**
+     * Shuts down the pool that the analyzer created itself. An executor that
+     * was set by the caller is not shut down. The analyzer cannot decrypt
+     * afterwards, unless a new executor is set.
+     */
+    public synchronized void shutdown() {
+	if (ownPool != null) {
+	    ownPool.shutdown();
+	    ownPool = null;
+	}
+    }
+
+    /**
+     * Decrypts a cipher text with a known key length.
+     * 
+     * @param encryptedText
+     *            Cipher text
+     * @param keylength
+     *            Length of the transposition key
+     * @return Best plain text
+     */
     public String decrypt(final String encryptedText, final int keylength) {
-	final Grid cipherGrid = new Grid(keylength);
-	cipherGrid.add(encryptedText);
+	return decrypt(encryptedText, keylength, Budget.unlimited())
+		.getPlainText();
+    }
 
-	// calculate frequencies
-	final List<List<Character>> gridData = cipherGrid.getGrid();
-	final List<TObjectIntHashMap<Character>> freqs = new ArrayList<TObjectIntHashMap<Character>>();
+    /**
+     * Decrypts a cipher text with a known key length. The deadline of the
+     * budget holds for the arrangement search and the substitution search, and
+     * its evaluations are those of the substitution search. When it is
+     * exhausted, the best candidate so far is returned.
+     * 
+     * @param encryptedText
+     *            Cipher text
+     * @param keylength
+     *            Length of the transposition key
+     * @param budget
+     *            Budget of fitness evaluations and time
+     * @return Best substitution and its fitness
+     */
+    public SolveResult decrypt(final String encryptedText,
+	    final int keylength, final Budget budget) {
+	return decrypt(encryptedText, keylength, budget, random.nextLong());
+    }
 
-	for (int i = 0; i < gridData.size(); i++) {
-	    freqs.add(new TObjectIntHashMap<Character>());
-	    final TObjectIntHashMap<Character> freq = freqs.get(i);
+    /**
+     * Decrypts a cipher text with a known key length and a seed. The result
+     * only depends on the seed, unless the budget runs out of time.
+     * 
+     * @param encryptedText
+     *            Cipher text
+     * @param keylength
+     *            Length of the transposition key
+     * @param budget
+     *            Budget of fitness evaluations and time
+     * @param seed
+     *            Seed of the arrangement search and the restarts of the
+     *            substitution solver
+     * @return Best substitution and its fitness
+     */
+    public SolveResult decrypt(final String encryptedText,
+	    final int keylength, final Budget budget, final long seed) {
+	final long start = System.nanoTime();
+	final Random searchRandom = new Random(seed);
+	final byte[] cipherText = new byte[encryptedText.length()];
+	PolybiusSquare.toKeyNameIndices(encryptedText, cipherText);
+	final Grid cipherGrid = fullRows(cipherText, keylength);
+
+	// calculate frequencies
+	final List<Column> gridData = cipherGrid.getGrid();
+	final ColumnStatistics[] columns = ColumnStatistics
+		.fromGrid(cipherGrid);
 
-	    for (final Character c : PolybiusSquare.keyName) {
-		freq.put(c, 0);
+	if (LOG.isInfoEnabled()) {
+	    for (final ColumnStatistics column : columns) {
+		LOG.info(column);
 	    }
 
-	    final List<Character> col = gridData.get(i);
+	    LOG.info("After sorting:");
+	}
+
+	final long colMask = RowIdentifier.findOptimalGrouping(columns);
 
-	    for (int j = 0; j < col.size(); j++) {
-		final Character curKey = col.get(j);
-		freq.put(curKey, freq.get(curKey) + 1);
+	if (LOG.isInfoEnabled()) {
+	    final StringBuffer groups = new StringBuffer("Grouped: ");
+	    for (int i = 0; i < columns.length; i++) {
+		if ((colMask & (1L << i)) != 0) {
+		    groups.append(i + " ");
+		}
 	    }
 
-	    LOG.info(freq);
+	    LOG.info(groups);
 	}
 
-	LOG.info("After sorting:");
+	// match pattern
+	final List<Column> charCol = new ArrayList<Column>();
+	final List<Column> charRow = new ArrayList<Column>();
+	splitColumns(gridData, colMask, charCol, charRow);
 
-	final List<TObjectIntHashMap<Character>> col = new ArrayList<TObjectIntHashMap<Character>>();
-	final List<TObjectIntHashMap<Character>> row = new ArrayList<TObjectIntHashMap<Character>>();
+	// the arrangement search shares the deadline of the decryption
+	pattern.findOptimalPatternDistribution(charCol, charRow, budget
+		.limit(Pattern.DEFAULT_SEARCH_EVALUATIONS), searchRandom,
+		arrangementSearch);
 
-	for (int i = 0; i < freqs.size(); i++) {
-	    if (i < freqs.size() / 2) {
-		col.add(freqs.get(i));
-	    } else {
-		row.add(freqs.get(i));
-	    }
+	final byte[] monoSubSymbols = unFraction(cipherText, keylength,
+		charCol, charRow);
+
+	if (LOG.isInfoEnabled()) {
+	    LOG.info(describeColumns(charCol, charRow));
+	    LOG.info("IC: " + indexOfCoincidence(monoSubSymbols));
 	}
 
-	RowIdentifier.findOptimalGrouping(col, row);
+	final SolveResult result = restartSearch.solve(monoSubSymbols,
+		RESTARTS, searchRandom.nextLong(), budget);
 
-	StringBuffer groups = new StringBuffer("Grouped: ");
-	for (int i = 0; i < freqs.size(); i++) {
-	    for (int j = 0; j < col.size(); j++) {
-		if (freqs.get(i).equals(col.get(j))) {
-		    groups.append(i + " ");
-		    break;
-		}
+	if (LOG.isInfoEnabled()) {
+	    LOG.info("Best result:" + result.getPlainText());
+	}
+	METRICS.recordDecryption(System.nanoTime() - start, result.isStopped());
+	return result;
+    }
+
+    /**
+     * Puts the full rows of a cipher text in a grid. Which columns have a
+     * symbol in the last row depends on the transposition key, so the last
+     * row is left out until the key is known.
+     * 
+     * @param cipherText
+     *            Indices in <code>keyName</code> of the cipher text symbols
+     * @param keyLength
+     *            Length of the transposition key
+     * @return Grid of the full rows, in cipher text order
+     */
+    private static Grid fullRows(final byte[] cipherText, final int keyLength) {
+	final Grid grid = new Grid(keyLength);
+	grid.add(cipherText, cipherText.length - cipherText.length % keyLength);
+	return grid;
+    }
+
+    /**
+     * Unfractions a cipher text with the arrangement of columns and rows that
+     * was found on its full rows. The arrangement is read as column, row,
+     * column, row and so on, which gives the transposition key, and with it
+     * the columns that have a symbol in the last row.
+     * 
+     * @param cipherText
+     *            Indices in <code>keyName</code> of the cipher text symbols
+     * @param keyLength
+     *            Length of the transposition key
+     * @param charCol
+     *            Ordered columns in the square
+     * @param charRow
+     *            Ordered rows in the square
+     * @return Unfractioned text as indices in <code>plainAlphabet</code>
+     */
+    private static byte[] unFraction(final byte[] cipherText,
+	    final int keyLength, final List<Column> charCol,
+	    final List<Column> charRow) {
+	final Integer[] key = new Integer[keyLength];
+	int next = 0;
+	for (int i = 0; i < Math.max(charCol.size(), charRow.size()); i++) {
+	    if (i < charCol.size()) {
+		key[charCol.get(i).getIndex()] = next++;
+	    }
+	    if (i < charRow.size()) {
+		key[charRow.get(i).getIndex()] = next++;
 	    }
 	}
 
-	LOG.info(groups);
+	final Grid grid = Grid.decode(cipherText, cipherText.length, Arrays
+		.asList(key));
+	final List<Column> col = new ArrayList<Column>(charCol.size());
+	for (final Column column : charCol) {
+	    col.add(grid.getColumn(column.getIndex()));
+	}
+	final List<Column> row = new ArrayList<Column>(charRow.size());
+	for (final Column column : charRow) {
+	    row.add(grid.getColumn(column.getIndex()));
+	}
 
-	// match pattern
-	final List<List<Character>> charCol = new ArrayList<List<Character>>();
-	final List<List<Character>> charRow = new ArrayList<List<Character>>();
+	final byte[] symbols = new byte[PolybiusSquare.unFractionLength(row,
+		col)];
+	PolybiusSquare.unFraction(row, col, symbols);
+	return symbols;
+    }
 
+    /**
+     * Splits the columns of the transposition grid into the columns that are
+     * columns and the columns that are rows in the Polybius square.
+     * 
+     * @param gridData
+     *            Columns of the transposition grid
+     * @param colMask
+     *            Mask of the grid columns that are columns in the square
+     * @param charCol
+     *            List to add the columns in the square to
+     * @param charRow
+     *            List to add the rows in the square to
+     */
+    private static void splitColumns(final List<Column> gridData,
+	    final long colMask, final List<Column> charCol,
+	    final List<Column> charRow) {
 	for (int i = 0; i < gridData.size(); i++) {
-	    if (col.contains(freqs.get(i))) {
+	    if ((colMask & (1L << i)) != 0) {
 		charCol.add(gridData.get(i));
 	    } else {
 		charRow.add(gridData.get(i));
 	    }
 	}
+    }
 
-	pattern.findOptimalPatternDistribution(charCol, charRow);
+    /**
+     * Describes the order of the grid columns after the pattern matching.
+     * Columns are identified by their index, so that columns with the same
+     * content get their own index.
+     * 
+     * @param charCol
+     *            Ordered columns in the square
+     * @param charRow
+     *            Ordered rows in the square
+     * @return Grid column indices, alternating between columns and rows
+     */
+    private static String describeColumns(final List<Column> charCol,
+	    final List<Column> charRow) {
+	final StringBuffer groups = new StringBuffer("Result: ");
 
-	groups = new StringBuffer("Result: ");
 	for (int i = 0; i < charCol.size(); i++) {
-	    for (int j = 0; j < gridData.size(); j++) {
-		if (charCol.get(i).equals(gridData.get(j))) {
-		    groups.append(j + " ");
-		}
-	    }
-
-	    for (int j = 0; j < gridData.size(); j++) {
-		if (charRow.get(i).equals(gridData.get(j))) {
-		    groups.append(j + " ");
-		}
-	    }
+	    groups.append(charCol.get(i).getIndex() + " ");
+	    groups.append(charRow.get(i).getIndex() + " ");
 	}
 
-	LOG.info(groups);
-
-	final String monoSubText = PolybiusSquare.unFraction(charRow, charCol);
-
-	LOG.info("IC: " + indexOfCoincidence(monoSubText));
-
-	Map<Character, Character> bestAlphabet = new HashMap<Character, Character>();
-
-	for (int i = 0; i < 10; i++) { // 10 restarts
-	    float fitness = 0;
-
-	    for (int j = 0; j < 6; j++) {
-		final Map<Character, Character> newAlphabet = hillClimb(
-			monoSubText, Encryption.randomAlphabet());
-
-		final float newFitness = (float) tetragram.fitness(monoSubText,
-			newAlphabet);
-		if (newFitness > fitness) {
-		    fitness = newFitness;
-		    bestAlphabet = newAlphabet;
-		    LOG.info("Attempt : "
-			    + Encryption.transcribeCipherText(monoSubText,
-				    bestAlphabet));
-		}
-	    }
-	}
-
-	String result = Encryption.transcribeCipherText(monoSubText,
-		bestAlphabet);
-	LOG.info("Best result:" + result);
-	return result;
+	return groups.toString();
     }
 
     /**
@@ -184,212 +349,228 @@ public class Analysis {
      *            key, 3 or more goes all the way.
      */
     public void doAnalysis(final String text, int testLevel) {
-	final PolybiusSquare square = PolybiusSquare.generateRandomSquare();
-	LOG.debug(square);
+	if (doAnalysis(text, testLevel, random) >= getTargetLevel(testLevel)) {
+	    correctAnalysis++;
+	}
+    }
+
+    /**
+     * Gets the level an analysis has to reach to be correct.
+     * 
+     * @param testLevel
+     *            How far to go in the check
+     * @return 1 or 2 for the checks that stop early, otherwise 3
+     */
+    public static int getTargetLevel(final int testLevel) {
+	return testLevel == 1 || testLevel == 2 ? testLevel : 3;
+    }
+
+    /**
+     * Does a full analysis with a given random number generator. It can be
+     * called from multiple threads, as long as every thread has its own
+     * generator.
+     * 
+     * @param text
+     *            Source text
+     * @param testLevel
+     *            How far to go in the check. 0 stops at the matching, 2 at the
+     *            key, 3 or more goes all the way.
+     * @param random
+     *            Random number generator for the square, the key, the text
+     *            and the solver
+     * @return The last level that was correct: 1 if the rows and columns
+     *         were identified, 2 if the transposition key was found and 3 if
+     *         the substitution was solved. 0 if nothing was correct.
+     */
+    public int doAnalysis(final String text, int testLevel,
+	    final Random random) {
+	// the last row of the grid does not have to be full
+	final int pieceLength = DEFAULT_KEY_LENGTH * DEFAULT_ROWS
+		+ random.nextInt(DEFAULT_KEY_LENGTH);
+	return doAnalysis(text, testLevel, random, DEFAULT_KEY_LENGTH,
+		pieceLength, null);
+    }
 
-	/* Generate an even keylength between 4 and 10. */
-	final int keyLength = 8;// random.nextInt(4) * 2 + 4;
-	final List<Integer> key = Grid.generateRandomKey(keyLength);
-	LOG.info("Key: " + key);
+    /**
+     * Does a full analysis of a piece of text of a given length, encrypted
+     * with a key of a given length. Every stage is timed, and its result is
+     * added to a report.
+     * 
+     * @param text
+     *            Source text
+     * @param testLevel
+     *            How far to go in the check. 0 stops at the matching, 2 at the
+     *            key, 3 or more goes all the way.
+     * @param random
+     *            Random number generator for the square, the key, the text
+     *            and the solver
+     * @param keyLength
+     *            Length of the transposition key
+     * @param pieceLength
+     *            Number of plain text characters
+     * @param report
+     *            Report of the stages, or <code>null</code>
+     * @return The last level that was correct
+     * @see #doAnalysis(String, int, Random)
+     */
+    public int doAnalysis(final String text, int testLevel,
+	    final Random random, final int keyLength, final int pieceLength,
+	    final StageReport report) {
+	final PolybiusSquare square = PolybiusSquare
+		.generateRandomSquare(random);
+	LOG.debug(square);
 
-	// Shrink ciphertext. It should be a multiple of the key length
-	final int timesKeyLength = 50;
-	final int start = random.nextInt(text.length() - keyLength
-		* timesKeyLength);
-	final String cipherTextPiece = text.substring(start, start + keyLength
-		* timesKeyLength);
-	LOG.info("Plain text: " + cipherTextPiece);
+	final List<Integer> key = Grid.generateRandomKey(keyLength, random);
 
-	final String fractionedText = square.fraction(cipherTextPiece);
-	final Grid grid = new Grid(keyLength);
-	grid.add(fractionedText);
+	if (report != null) {
+	    report.recordTrial(keyLength, pieceLength);
+	}
 
-	final List<TObjectIntHashMap<Character>> oldFreqs = new ArrayList<TObjectIntHashMap<Character>>();
-	for (int i = 0; i < grid.getGrid().size(); i++) {
-	    final TObjectIntHashMap<Character> freq = new TObjectIntHashMap<Character>();
+	final int start = random.nextInt(text.length() - pieceLength);
+	final String cipherTextPiece = text.substring(start, start
+		+ pieceLength);
 
-	    for (final Character c : PolybiusSquare.keyName) {
-		freq.put(c, 0);
-	    }
+	final byte[] fractionedText = new byte[2 * pieceLength];
+	square.fraction(cipherTextPiece.getBytes(StandardCharsets.ISO_8859_1),
+		pieceLength, fractionedText);
+	final Grid grid = new Grid(keyLength);
+	grid.add(fractionedText, fractionedText.length);
 
-	    final List<Character> col = grid.getGrid().get(i);
+	// the statistics of the plain grid are only for the log
+	if (LOG.isInfoEnabled()) {
+	    LOG.info("Key: " + key);
+	    LOG.info("Plain text: " + cipherTextPiece);
 
-	    for (int j = 0; j < col.size(); j++) {
-		freq.increment(col.get(j));
+	    for (final ColumnStatistics column : ColumnStatistics
+		    .fromGrid(grid)) {
+		LOG.info(column);
 	    }
-	    
-	    oldFreqs.add(freq);
-
-	    LOG.info(freq);
 	}
 
 	grid.switchColumns(key);
 
-	final String encryptedText = grid.encode();
+	final byte[] encryptedText = new byte[grid.size()];
+	grid.encode(encryptedText);
 
-	LOG.debug(encryptedText);
+	if (LOG.isDebugEnabled()) {
+	    LOG.debug(grid.encode());
+	}
 
 	LOG.info("--------- BEGINNING OF DECRYPTION");
 
-	final Grid cipherGrid = new Grid(key.size());
-	cipherGrid.add(encryptedText);
+	final Grid cipherGrid = fullRows(encryptedText, key.size());
 
 	// calculate frequencies
-	final List<List<Character>> gridData = cipherGrid.getGrid();
-	final List<TObjectIntHashMap<Character>> freqs = new ArrayList<TObjectIntHashMap<Character>>();
-
-	for (int i = 0; i < gridData.size(); i++) {
-	    freqs.add(new TObjectIntHashMap<Character>());
-	    final TObjectIntHashMap<Character> freq = freqs.get(i);
-
-	    for (final Character c : PolybiusSquare.keyName) {
-		freq.put(c, 0);
-	    }
-
-	    final List<Character> col = gridData.get(i);
-
-	    for (int j = 0; j < col.size(); j++) {
-		freq.increment(col.get(j));
-	    }
-	}
+	long stageStart = System.nanoTime();
+	final List<Column> gridData = cipherGrid.getGrid();
+	final ColumnStatistics[] columns = ColumnStatistics
+		.fromGrid(cipherGrid);
+	final long colMask = RowIdentifier.findOptimalGrouping(columns);
+	long stageTime = System.nanoTime() - stageStart;
 
 	LOG.info("After sorting:");
 
-	final List<TObjectIntHashMap<Character>> col = new ArrayList<TObjectIntHashMap<Character>>();
-	final List<TObjectIntHashMap<Character>> row = new ArrayList<TObjectIntHashMap<Character>>();
+	// original column i is column key.indexOf(i) of the cipher grid
+	int correct = 0;
+	int correctTrans = 0;
+	for (int i = 0; i < key.size(); i++) {
+	    final boolean isCol = (colMask & (1L << key.indexOf(i))) != 0;
 
-	for (int i = 0; i < freqs.size(); i++) {
-	    if (i < freqs.size() / 2) {
-		col.add(freqs.get(i));
+	    if (isCol == (i % 2 == 0)) {
+		correct++;
 	    } else {
-		row.add(freqs.get(i));
+		correctTrans++;
 	    }
 	}
 
-	RowIdentifier.findOptimalGrouping(col, row);
-	LOG.info(col);
-	LOG.info(row);
-
-	int correct = 0;
-	int correctTrans = 0;
-	for (int i = 0; i < oldFreqs.size(); i++) {
-	    if (i % 2 == 0) {
-		if (col.contains(oldFreqs.get(i))) {
-		    correct++;
-		} else {
-		    correctTrans++;
-		}
-	    }
-	    else {
-		if (row.contains(oldFreqs.get(i))) {
-		    correct++;
-		} else {
-		    correctTrans++;
-		}
-	    }
+	if (LOG.isInfoEnabled()) {
+	    LOG.info("Correct identification of rows and cols: "
+		    + Math.max(correct, correctTrans) + "/" + key.size());
 	}
 
-	LOG.info("Correct identification of rows and cols: "
-		+ Math.max(correct, correctTrans) + "/" + key.size());
+	if (report != null) {
+	    report.recordStage(keyLength, pieceLength, 1, stageTime, Math.max(
+		    correct, correctTrans) == key.size());
+	}
 
 	if (Math.max(correct, correctTrans) == key.size()) {
 	    if (testLevel == 1) {
-		correctAnalysis++;
-		return;
+		return 1;
 	    }
 	} else {
-	    return;
+	    return 0;
 	}
 
 	// match pattern
-	final List<List<Character>> charCol = new ArrayList<List<Character>>();
-	final List<List<Character>> charRow = new ArrayList<List<Character>>();
+	stageStart = System.nanoTime();
+	final List<Column> charCol = new ArrayList<Column>();
+	final List<Column> charRow = new ArrayList<Column>();
+	splitColumns(gridData, colMask, charCol, charRow);
 
-	for (int i = 0; i < gridData.size(); i++) {
-	    if (col.contains(freqs.get(i))) {
-		charCol.add(gridData.get(i));
-	    } else {
-		charRow.add(gridData.get(i));
-	    }
-	}
-
-	pattern.findOptimalPatternDistribution(charCol, charRow);
-	
-	StringBuffer groups = new StringBuffer("Result: ");
-	for (int i = 0; i < charCol.size(); i++) {
-	    for (int j = 0; j < gridData.size(); j++) {
-		if (charCol.get(i).equals(gridData.get(j))) {
-		    groups.append(j + " ");
-		}
-	    }
+	pattern.findOptimalPatternDistribution(charCol, charRow, new Budget(0,
+		TimeUnit.NANOSECONDS, Pattern.DEFAULT_SEARCH_EVALUATIONS), random,
+		arrangementSearch);
 
-	    for (int j = 0; j < gridData.size(); j++) {
-		if (charRow.get(i).equals(gridData.get(j))) {
-		    groups.append(j + " ");
-		}
-	    }
-	}
+	final byte[] monoSubSymbols = unFraction(encryptedText, keyLength,
+		charCol, charRow);
+	stageTime = System.nanoTime() - stageStart;
 
-	LOG.info(groups);
-	
-	// see if it is correct
+	// see if it is correct, like the identification of rows and columns
 	correct = 0;
+	correctTrans = 0;
 	for (int i = 0; i < key.size(); i++) {
-	    if (i % 2 == 0 && charCol.get(i / 2).equals(gridData.get(key.get(i)))) {
-		correct++;
-	    }
+	    final List<Column> group = i % 2 == 0 ? charCol : charRow;
+	    final List<Column> transGroup = i % 2 == 0 ? charRow : charCol;
 
-	    if (i % 2 == 1 && charRow.get(i / 2).equals(gridData.get(key.get(i)))) {
+	    if (i / 2 < group.size()
+		    && group.get(i / 2).getIndex() == key.indexOf(i)) {
 		correct++;
 	    }
-	}
 
-	correctTrans = 0;
-	for (int i = 0; i < key.size(); i++) {
-	    if (i % 2 == 1 && charCol.get(i / 2).equals(gridData.get(key.get(i)))) {
+	    if (i / 2 < transGroup.size()
+		    && transGroup.get(i / 2).getIndex() == key.indexOf(i)) {
 		correctTrans++;
 	    }
+	}
 
-	    if (i % 2 == 0 && charRow.get(i / 2).equals(gridData.get(key.get(i)))) {
-		correctTrans++;
-	    }
+	if (LOG.isInfoEnabled()) {
+	    LOG.info(describeColumns(charCol, charRow));
+	    LOG.info("Correct transposition grid after pattern check: "
+		    + Math.max(correct, correctTrans) + "/" + key.size());
+	    LOG.info("IOC: " + indexOfCoincidence(monoSubSymbols));
 	}
 
-	LOG.info("Correct transposition grid after pattern check: "
-		+ Math.max(correct, correctTrans) + "/" + key.size());
-	
-	final String monoSubText = PolybiusSquare.unFraction(charRow, charCol);
-	LOG.info("IOC: " + indexOfCoincidence(monoSubText));
+	if (report != null) {
+	    report.recordStage(keyLength, pieceLength, 2, stageTime, Math.max(
+		    correct, correctTrans) == key.size());
+	}
 
 	if (Math.max(correct, correctTrans) == key.size()) {
 	    if (testLevel == 2) {
-		correctAnalysis++;
-		return;
+		return 2;
 	    }
 	} else {
-	    return;
+	    return 1;
 	}
 
-	// transposition grid is correct, now do mono sub solving
-	float fitness = 0;
-	Map<Character, Character> bestAlphabet = new HashMap<Character, Character>();
-	for (int j = 0; j < 1; j++) {
-	    final Map<Character, Character> newAlphabet = hillClimb(
-		    monoSubText, Encryption.randomAlphabet());
+	// transposition grid is correct, now do mono sub solving like decrypt
+	stageStart = System.nanoTime();
+	final SolveResult result = restartSearch.solve(monoSubSymbols,
+		RESTARTS, random.nextLong(), Budget.unlimited());
+	stageTime = System.nanoTime() - stageStart;
 
-	    final float newFitness = (float) tetragram.fitness(monoSubText,
-		    newAlphabet);
-	    if (newFitness > fitness) {
-		fitness = newFitness;
-		bestAlphabet = newAlphabet;
-	    }
+	final String answer = result.getPlainText();
+	if (LOG.isInfoEnabled()) {
+	    LOG.info("ANSWER: " + answer);
 	}
 
-	LOG.info("ANSWER: "
-		+ Encryption.transcribeCipherText(monoSubText, bestAlphabet));
-	correctAnalysis++;
+	final boolean solved = answer.equals(cipherTextPiece);
+	if (report != null) {
+	    report.recordStage(keyLength, pieceLength, 3, stageTime, solved);
+	}
 
 	LOG.info("--------- END OF DECRYPTION");
+	return solved ? 3 : 2;
     }
 
     /**
@@ -410,32 +591,77 @@ public class Analysis {
     public Map<Character, Character> simmulatedAnnealing(
 	    final String cipherText, final Map<Character, Character> alphabet,
 	    final double initialTemperature, final double a, final int n) {
+	final SubstitutionState state = new SubstitutionState(tetragram,
+		cipherText, alphabet);
 
-	final Random r = new Random();
+	simmulatedAnnealing(state, new Random(), initialTemperature, a, n);
 
-	final double absZero = 0.0000001;
-	double fitness = tetragram.fitness(cipherText, alphabet);
+	state.writeAlphabet(alphabet);
+	return alphabet;
+    }
 
-	@SuppressWarnings("unchecked")
-	final Entry<Character, Character>[] alphabetArray = alphabet.entrySet()
-		.toArray(new Entry[0]);
+    /**
+     * A monoalphabetic substitution solver using simmulated annealing. The
+     * substitution of the state is changed in place.
+     * 
+     * @param state
+     *            Solver state with the cipher text and starting substitution
+     * @param r
+     *            Random number generator
+     * @param initialTemperature
+     *            Initial tempterature
+     * @param a
+     *            Temperature factor
+     * @param n
+     *            Number of iterations to find equilibrium
+     * @return Fitness of the final substitution
+     */
+    public double simmulatedAnnealing(final SubstitutionState state,
+	    final Random r, final double initialTemperature, final double a,
+	    final int n) {
+	return simmulatedAnnealing(state, r, initialTemperature, a, n, Budget
+		.unlimited());
+    }
+
+    /**
+     * A monoalphabetic substitution solver using simmulated annealing that
+     * stops when its budget is exhausted. The best substitution that was seen
+     * is written back to the state.
+     * 
+     * @param state
+     *            Solver state with the cipher text and starting substitution
+     * @param r
+     *            Random number generator
+     * @param initialTemperature
+     *            Initial tempterature
+     * @param a
+     *            Temperature factor
+     * @param n
+     *            Number of iterations to find equilibrium
+     * @param budget
+     *            Budget of fitness evaluations and time
+     * @return Fitness of the best substitution
+     */
+    public double simmulatedAnnealing(final SubstitutionState state,
+	    final Random r, final double initialTemperature, final double a,
+	    final int n, final Budget budget) {
+	final double absZero = 0.0000001;
+	final int size = state.getAlphabetSize();
+	final Substitution best = new Substitution(state.getSubstitution());
+	double bestFitness = state.getFitness();
 
 	double temperature = initialTemperature;
-	while (temperature > absZero) {
+	search: while (temperature > absZero) {
 	    for (int k = 0; k < n; k++) {
 		boolean done = false;
-		final double oldFitness = fitness;
+		final double oldFitness = state.getFitness();
 
-		for (int i = 0; i < alphabet.size() - 1; i++) {
+		for (int i = 0; i < size - 1; i++) {
 		    if (!done) {
-			for (int j = i + 1; j < alphabet.size(); j++) {
-			    final Character tmp = alphabetArray[i].getValue();
-			    alphabetArray[i].setValue(alphabetArray[j]
-				    .getValue());
-			    alphabetArray[j].setValue(tmp);
-
-			    fitness = tetragram.fitness(cipherText, alphabet);
-			    // LOG.info(fitness - oldFitness);
+			int evaluations = 0;
+			for (int j = i + 1; j < size; j++) {
+			    final double fitness = state.swap(i, j);
+			    evaluations++;
 
 			    if (fitness > oldFitness
 				    || Math.exp((fitness - oldFitness)
@@ -444,12 +670,19 @@ public class Analysis {
 				break;
 			    } else {
 				// swap back
-				alphabetArray[j].setValue(alphabetArray[i]
-					.getValue());
-				alphabetArray[i].setValue(tmp);
-
+				state.rollback();
 			    }
 			}
+
+			if (state.getFitness() > bestFitness) {
+			    bestFitness = state.getFitness();
+			    best.set(state.getSubstitution());
+			}
+
+			METRICS.countSwaps(evaluations, done ? 1 : 0);
+			if (!budget.charge(evaluations)) {
+			    break search;
+			}
 		    }
 		}
 	    }
@@ -457,7 +690,11 @@ public class Analysis {
 	    temperature = temperature * a;
 	}
 
-	return alphabet;
+	if (state.getFitness() < bestFitness) {
+	    state.reset(best);
+	}
+
+	return state.getFitness();
     }
 
     /**
@@ -471,43 +708,71 @@ public class Analysis {
      */
     public Map<Character, Character> hillClimb(final String cipherText,
 	    final Map<Character, Character> alphabet) {
+	final SubstitutionState state = new SubstitutionState(tetragram,
+		cipherText, alphabet);
 
-	@SuppressWarnings("unchecked")
-	final Entry<Character, Character>[] alphabetArray = alphabet.entrySet()
-		.toArray(new Entry[0]);
+	hillClimb(state);
 
+	state.writeAlphabet(alphabet);
+	return alphabet;
+    }
+
+    /**
+     * A monoalphabetic substitution solver using hill-climbing. The
+     * substitution of the state is changed in place.
+     * 
+     * @param state
+     *            Solver state with the cipher text and starting substitution
+     * @return Fitness of the best substitution
+     */
+    public double hillClimb(final SubstitutionState state) {
+	return hillClimb(state, Budget.unlimited());
+    }
+
+    /**
+     * A monoalphabetic substitution solver using hill-climbing that stops
+     * when its budget is exhausted. Since every accepted swap improves the
+     * fitness, the state always holds the best substitution so far.
+     * 
+     * @param state
+     *            Solver state with the cipher text and starting substitution
+     * @param budget
+     *            Budget of fitness evaluations and time
+     * @return Fitness of the best substitution
+     */
+    public double hillClimb(final SubstitutionState state, final Budget budget) {
+	final int size = state.getAlphabetSize();
 	boolean goAgain = true;
-	double fitness = tetragram.fitness(cipherText, alphabet);
 
 	while (goAgain) {
 	    goAgain = false;
-	    final double oldFitness = fitness;
+	    final double oldFitness = state.getFitness();
 
-	    for (int i = 0; i < alphabet.size() - 1; i++) {
+	    for (int i = 0; i < size - 1; i++) {
 		if (!goAgain) {
-		    for (int j = i + 1; j < alphabet.size(); j++) {
-
-			final Character tmp = alphabetArray[i].getValue();
-			alphabetArray[i].setValue(alphabetArray[j].getValue());
-			alphabetArray[j].setValue(tmp);
-
-			fitness = tetragram.fitness(cipherText, alphabet);
+		    int evaluations = 0;
+		    for (int j = i + 1; j < size; j++) {
+			final double fitness = state.swap(i, j);
+			evaluations++;
 
 			if (fitness > oldFitness) {
 			    goAgain = true;
 			    break;
 			} else {
 			    // swap back
-			    alphabetArray[j].setValue(alphabetArray[i]
-				    .getValue());
-			    alphabetArray[i].setValue(tmp);
+			    state.rollback();
 			}
 		    }
+
+		    METRICS.countSwaps(evaluations, goAgain ? 1 : 0);
+		    if (!budget.charge(evaluations)) {
+			return state.getFitness();
+		    }
 		}
 	    }
 	}
 
-	return alphabet;
+	return state.getFitness();
     }
 
     /**
@@ -663,6 +928,120 @@ public class Analysis {
 	LOG.info("Correct decryptions: " + correct);
     }
 
+    /**
+     * Compares scoring with quantized reference frequencies to scoring with
+     * the double table. It reports the relative error of the fitness, how
+     * often the hill-climber ends in the same substitution from the same start
+     * and the time per fitness evaluation.
+     * 
+     * @param text
+     *	      Source text
+     * @param valueType
+     *	      <code>NGramTable.VALUE_SHORT</code> or
+     *	      <code>NGramTable.VALUE_BYTE</code>
+     */
+    public void doQuantizationTestRun(final String text, final int valueType) {
+	final Tetragram quantized = tetragram.quantize(valueType);
+	final Random r = new Random();
+	final int textLength = 100;
+	final int runs = 100;
+	double sumError = 0, maxError = 0;
+	int scored = 0, same = 0, correct = 0, correctQuantized = 0;
+
+	for (int i = 0; i < runs; i++) {
+	    final int start = r.nextInt(text.length() - textLength);
+	    final byte[] plainText = Encryption.toSymbols(text.substring(start,
+		    start + textLength));
+	    final Substitution key = Substitution.random(r);
+	    final byte[] cipherText = new byte[plainText.length];
+	    Encryption.transcribe(plainText, key, cipherText);
+
+	    final Substitution initial = Substitution.random(r);
+	    final SubstitutionState state = new SubstitutionState(tetragram,
+		    cipherText, initial);
+	    final SubstitutionState quantizedState = new SubstitutionState(
+		    quantized, cipherText, initial);
+	    hillClimb(state);
+	    hillClimb(quantizedState);
+
+	    // compare at a local optimum, random keys often score 0
+	    final double fitness = state.getFitness();
+	    if (fitness != 0) {
+		final double error = Math.abs(quantized.fitness(cipherText,
+			state.getSubstitution())
+			- fitness)
+			/ Math.abs(fitness);
+		sumError += error;
+		maxError = Math.max(maxError, error);
+		scored++;
+	    }
+
+	    final byte[] answer = new byte[cipherText.length];
+	    Encryption.transcribe(cipherText, state.getSubstitution(), answer);
+	    final byte[] quantizedAnswer = new byte[cipherText.length];
+	    Encryption.transcribe(cipherText, quantizedState.getSubstitution(),
+		    quantizedAnswer);
+
+	    if (Arrays.equals(answer, quantizedAnswer)) {
+		same++;
+	    }
+	    if (Arrays.equals(answer, plainText)) {
+		correct++;
+	    }
+	    if (Arrays.equals(quantizedAnswer, plainText)) {
+		correctQuantized++;
+	    }
+	}
+
+	LOG.info("Mean relative fitness error: " + sumError / scored + ", max: "
+		+ maxError);
+	LOG.info("Same hill-climbing result: " + same + "/" + runs
+		+ ", correct with doubles: " + correct + ", quantized: "
+		+ correctQuantized);
+	LOG.info("Time per evaluation with doubles: "
+		+ timeFitness(tetragram, text, r) + " ns, quantized: "
+		+ timeFitness(quantized, text, r) + " ns");
+    }
+
+    /**
+     * Measures the time of a fitness evaluation of a random text.
+     * 
+     * @param table
+     *	      Reference tetragram table
+     * @param text
+     *	      Source text
+     * @param r
+     *	      Random number generator
+     * @return Time per evaluation in nanoseconds
+     */
+    private long timeFitness(final Tetragram table, final String text,
+	    final Random r) {
+	final int textLength = 100;
+	final int evaluations = 100000;
+	final int start = r.nextInt(text.length() - textLength);
+	final byte[] cipherText = Encryption.toSymbols(text.substring(start,
+		start + textLength));
+	final Substitution key = Substitution.random(r);
+
+	long time = 0;
+	// the first round warms up the JIT compiler
+	for (int round = 0; round < 2; round++) {
+	    final long begin = System.nanoTime();
+	    for (int i = 0; i < evaluations; i++) {
+		key.swap(i % key.size(), (i * 7 + 3) % key.size());
+		table.fitness(cipherText, key);
+	    }
+	    time = System.nanoTime() - begin;
+	}
+
+	return time / evaluations;
+    }
+
+    /**
+     * Gets the number of analyses that were correct up to their test level.
+     * 
+     * @return Number of correct analyses
+     */
     public int getCorrectAnalysis() {
 	return correctAnalysis;
     }
@@ -684,4 +1063,29 @@ public class Analysis {
 	return ic * Encryption.plainAlphabet.length()
 		/ (text.length() * (text.length() - 1));
     }
+
+    /**
+     * Calculates the index of coincidence of a text of symbol indices.
+     * 
+     * @param symbols
+     *            Text as indices in <code>plainAlphabet</code>
+     * @return Index of coincidence
+     * @see #indexOfCoincidence(String)
+     */
+    public static float indexOfCoincidence(final byte[] symbols) {
+	final int[] freq = new int[Encryption.plainAlphabet.length()];
+
+	for (final byte symbol : symbols) {
+	    freq[symbol]++;
+	}
+
+	float ic = 0;
+
+	for (int i = 0; i < freq.length; i++) {
+	    ic += freq[i] * (freq[i] - 1);
+	}
+
+	return ic * Encryption.plainAlphabet.length()
+		/ (symbols.length * (symbols.length - 1));
+    }
 }
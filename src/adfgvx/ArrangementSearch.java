@@ -0,0 +1,314 @@
+package adfgvx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import utils.Permutations;
+
+/**
+ * Tries every pairing of the columns and rows of the Polybius square in
+ * parallel. The index of coincidence does not change when the slots are
+ * permuted, so only the pairing of a column with a row matters. The order of
+ * the smaller group is kept, and the larger group is permuted. A pairing is
+ * ranked by the lexicographic rank of that permutation. The ranks are split
+ * into contiguous ranges, and every range is scored by a task with its own
+ * evaluator that keeps its best candidates. The candidates of all tasks are
+ * merged at the end. Ties are broken in favour of the lowest rank, so the
+ * result does not depend on the number of tasks.
+ * 
+ * If the larger group has more than one column that is not paired, only the
+ * permutations that keep those columns in order are scored, so that every
+ * candidate is a different pairing.
+ * 
+ * Every task charges a budget once every <code>CHARGE_INTERVAL</code>
+ * pairings. When the budget is exhausted, the best candidates that were
+ * scored so far are returned.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Pattern#findBestArrangements(List, List, int)
+ */
+public class ArrangementSearch {
+    /** Number of pairings that a task scores between charges. */
+    private static final int CHARGE_INTERVAL = 1024;
+
+    /** Orders candidates from best to worst. */
+    private static final Comparator<Candidate> BEST_FIRST =
+            new Comparator<Candidate>() {
+        @Override
+        public int compare(final Candidate a, final Candidate b) {
+            if (a.fitness != b.fitness) {
+                return a.fitness > b.fitness ? -1 : 1;
+            }
+
+            return a.rank < b.rank ? -1 : (a.rank == b.rank ? 0 : 1);
+        }
+    };
+
+    /** Executor of the tasks, or <code>null</code> to run in the caller. */
+    private final ExecutorService executor;
+    /** Largest number of tasks per search. */
+    private final int parallelism;
+
+    /**
+     * Creates a search that runs in the calling thread.
+     */
+    public ArrangementSearch() {
+        this(null, 1);
+    }
+
+    /**
+     * Creates a new parallel search.
+     * 
+     * @param executor
+     *            Executor of the tasks, for example a fork-join pool
+     * @param parallelism
+     *            Largest number of tasks per search, usually the number of
+     *            threads of the executor
+     */
+    public ArrangementSearch(final ExecutorService executor,
+            final int parallelism) {
+        this.executor = executor;
+        this.parallelism = executor == null ? 1 : Math.max(1, parallelism);
+    }
+
+    /**
+     * Finds the best acceptable pairings of columns and rows.
+     * 
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param count
+     *            Largest number of candidates to return
+     * @return Best candidates, the best first
+     */
+    public List<Candidate> search(final List<Column> col,
+            final List<Column> row, final int count) {
+        return search(col, row, count, Budget.unlimited());
+    }
+
+    /**
+     * Finds the best acceptable pairings of columns and rows, until the
+     * budget is exhausted.
+     * 
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param count
+     *            Largest number of candidates to return
+     * @param budget
+     *            Budget of evaluations and time, shared by the tasks
+     * @return Best candidates that were scored, the best first
+     */
+    public List<Candidate> search(final List<Column> col,
+            final List<Column> row, final int count, final Budget budget) {
+        final long total = Permutations.factorial(Math.max(col.size(), row
+                .size()));
+        final int tasks = (int) Math.min(total, parallelism);
+
+        final List<Candidate> candidates = new ArrayList<Candidate>();
+
+        if (tasks == 1) {
+            candidates.addAll(new Task(col, row, 0, total, count, budget)
+                    .call());
+        } else {
+            final List<Future<List<Candidate>>> futures =
+                    new ArrayList<Future<List<Candidate>>>();
+            for (int i = 0; i < tasks; i++) {
+                futures.add(executor.submit(new Task(col, row, total * i
+                        / tasks, total * (i + 1) / tasks, count, budget)));
+            }
+
+            try {
+                for (final Future<List<Candidate>> future : futures) {
+                    candidates.addAll(future.get());
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while searching.");
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException("Search task failed.",
+                        e.getCause());
+            } finally {
+                for (final Future<List<Candidate>> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        Collections.sort(candidates, BEST_FIRST);
+        return candidates.subList(0, Math.min(count, candidates.size()));
+    }
+
+    /**
+     * A pairing of columns and rows with its fitness.
+     */
+    public static class Candidate {
+        /** Index of the column in every slot. */
+        private final int[] columnOrder;
+        /** Index of the row in every slot. */
+        private final int[] rowOrder;
+        /** Index of coincidence of the arrangement. */
+        private final float fitness;
+        /** Rank of the pairing. */
+        private final long rank;
+
+        public Candidate(final int[] columnOrder, final int[] rowOrder,
+                final float fitness, final long rank) {
+            this.columnOrder = columnOrder;
+            this.rowOrder = rowOrder;
+            this.fitness = fitness;
+            this.rank = rank;
+        }
+
+        /**
+         * Gets the column in every slot.
+         * 
+         * @return Column indices
+         */
+        public int[] getColumnOrder() {
+            return columnOrder;
+        }
+
+        /**
+         * Gets the row in every slot.
+         * 
+         * @return Row indices
+         */
+        public int[] getRowOrder() {
+            return rowOrder;
+        }
+
+        /**
+         * Gets the fitness of the pairing.
+         * 
+         * @return Index of coincidence
+         */
+        public float getFitness() {
+            return fitness;
+        }
+
+        /**
+         * Gets the rank of the pairing in the search order.
+         * 
+         * @return Rank
+         */
+        public long getRank() {
+            return rank;
+        }
+    }
+
+    /**
+     * A task that scores a range of pairings.
+     */
+    private static class Task implements Callable<List<Candidate>> {
+        /** Columns of the Polybius square. */
+        private final List<Column> col;
+        /** Rows of the Polybius square. */
+        private final List<Column> row;
+        /** Rank of the first pairing. */
+        private final long from;
+        /** Rank after the last pairing. */
+        private final long to;
+        /** Largest number of candidates to keep. */
+        private final int count;
+        /** Budget of the search. */
+        private final Budget budget;
+
+        public Task(final List<Column> col,
+                final List<Column> row, final long from,
+                final long to, final int count, final Budget budget) {
+            this.col = col;
+            this.row = row;
+            this.from = from;
+            this.to = to;
+            this.count = count;
+            this.budget = budget;
+        }
+
+        @Override
+        public List<Candidate> call() {
+            final CoincidenceEvaluator evaluator = new CoincidenceEvaluator(
+                    col, row);
+            final int slots = Math.min(col.size(), row.size());
+            final boolean permuteRows = row.size() >= col.size();
+            final int[] fixed = new int[permuteRows ? col.size() : row.size()];
+            for (int i = 0; i < fixed.length; i++) {
+                fixed[i] = i;
+            }
+
+            // the worst kept candidate is at the head
+            final PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(
+                    Math.max(1, count), Collections.reverseOrder(BEST_FIRST));
+
+            final Permutations perm = new Permutations(permuteRows ? row
+                    .size() : col.size(), from, to);
+
+            int scored = 0;
+            while (!budget.isExhausted() && perm.next()) {
+                final int[] permuted = perm.get();
+                if (!isSorted(permuted, slots)) {
+                    continue;
+                }
+
+                final float score = permuteRows ? evaluator.setOrder(fixed,
+                        permuted) : evaluator.setOrder(permuted, fixed);
+
+                if (Pattern.isAcceptable(score)) {
+                    final int[] colOrder = permuteRows ? fixed : permuted;
+                    final int[] rowOrder = permuteRows ? permuted : fixed;
+
+                    if (best.size() < count) {
+                        best.add(new Candidate(colOrder.clone(), rowOrder
+                                .clone(), score, perm.getRank()));
+                    } else if (count > 0 && score > best.peek().fitness) {
+                        // ranks increase, so a tie keeps the earlier one
+                        best.poll();
+                        best.add(new Candidate(colOrder.clone(), rowOrder
+                                .clone(), score, perm.getRank()));
+                    }
+                }
+
+                if (++scored == CHARGE_INTERVAL) {
+                    budget.charge(scored);
+                    scored = 0;
+                }
+            }
+
+            budget.charge(scored);
+            return new ArrayList<Candidate>(best);
+        }
+
+        /**
+         * Checks if the columns that are not paired are in order.
+         * 
+         * @param order
+         *            Index in every slot
+         * @param slots
+         *            Number of paired slots
+         * @return True if the unpaired indices increase
+         */
+        private static boolean isSorted(final int[] order, final int slots) {
+            for (int i = slots + 1; i < order.length; i++) {
+                if (order[i - 1] > order[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
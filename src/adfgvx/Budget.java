@@ -0,0 +1,151 @@
+package adfgvx;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the work of a solver, as a deadline and/or a number of fitness
+ * evaluations. Solvers charge their evaluations in small batches and stop
+ * when the budget is exhausted, keeping the best candidate they have. A budget
+ * can be shared by the threads of one search, and a stage of a search can get
+ * its own limit of evaluations with the same deadline.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see SolveResult
+ */
+public class Budget {
+    /** No deadline or evaluation limit. */
+    private static final long UNLIMITED = Long.MAX_VALUE;
+
+    /** Deadline in <code>System.nanoTime</code> time. */
+    private final long deadline;
+    /** Largest number of evaluations. */
+    private final long maxEvaluations;
+    /** Budget whose cancellation stops this budget, or <code>null</code>. */
+    private final Budget parent;
+    /** Number of evaluations so far. */
+    private final AtomicLong evaluations = new AtomicLong();
+    /** True when the budget is exhausted or cancelled. */
+    private volatile boolean exhausted = false;
+    /** True when the budget is cancelled. */
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates a new budget.
+     * 
+     * @param time
+     *            Time limit, or 0 for none
+     * @param unit
+     *            Unit of the time limit
+     * @param maxEvaluations
+     *            Largest number of fitness evaluations, or 0 for no limit
+     */
+    public Budget(final long time, final TimeUnit unit,
+            final long maxEvaluations) {
+        this(time > 0 ? System.nanoTime() + unit.toNanos(time) : UNLIMITED,
+                maxEvaluations, null);
+    }
+
+    /**
+     * Creates a new budget with a deadline.
+     * 
+     * @param deadline
+     *            Deadline in <code>System.nanoTime</code> time, or
+     *            <code>UNLIMITED</code>
+     * @param maxEvaluations
+     *            Largest number of fitness evaluations, or 0 for no limit
+     * @param parent
+     *            Budget whose cancellation stops this budget, or
+     *            <code>null</code>
+     */
+    private Budget(final long deadline, final long maxEvaluations,
+            final Budget parent) {
+        this.deadline = deadline;
+        this.maxEvaluations = maxEvaluations > 0 ? maxEvaluations : UNLIMITED;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a budget without limits.
+     * 
+     * @return Unlimited budget
+     */
+    public static Budget unlimited() {
+        return new Budget(0, TimeUnit.NANOSECONDS, 0);
+    }
+
+    /**
+     * Creates a budget for a stage of a search. It has the same deadline as
+     * this budget and is stopped when this budget is cancelled, but it counts
+     * its own evaluations. Running out of evaluations in one budget does not
+     * exhaust the other.
+     * 
+     * @param maxEvaluations
+     *            Largest number of fitness evaluations of the stage, or 0 for
+     *            no limit
+     * @return Budget of the stage
+     */
+    public Budget limit(final long maxEvaluations) {
+        return new Budget(deadline, maxEvaluations, this);
+    }
+
+    /**
+     * Charges a number of evaluations and checks if there is budget left.
+     * 
+     * @param count
+     *            Number of evaluations that were done
+     * @return True if the solver may continue
+     */
+    public boolean charge(final int count) {
+        if (exhausted) {
+            return false;
+        }
+
+        if (evaluations.addAndGet(count) >= maxEvaluations) {
+            exhausted = true;
+        } else if (deadline != UNLIMITED && System.nanoTime() >= deadline) {
+            exhausted = true;
+        } else if (parent != null && parent.isCancelled()) {
+            exhausted = true;
+        }
+
+        return !exhausted;
+    }
+
+    /**
+     * Stops all solvers that use this budget, or a budget of one of its
+     * stages.
+     */
+    public void cancel() {
+        cancelled = true;
+        exhausted = true;
+    }
+
+    /**
+     * Checks if this budget or the budget it was created from is cancelled.
+     * 
+     * @return True if the budget is cancelled
+     */
+    private boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * Checks if the budget is exhausted or cancelled.
+     * 
+     * @return True if solvers should stop
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * Gets the number of evaluations that were charged.
+     * 
+     * @return Number of evaluations
+     */
+    public long getEvaluations() {
+        return evaluations.get();
+    }
+}
@@ -0,0 +1,241 @@
+package adfgvx;
+
+import java.util.List;
+
+/**
+ * Evaluates the index of coincidence of the text that an arrangement of
+ * transposition grid columns defractions to, without building the text. The
+ * index only depends on the symbol counts, and the counts are a sum over the
+ * pairs of a column and a row in the Polybius square. The counts of every
+ * possible pair are computed once, so that swapping two columns or two rows
+ * updates the index in constant time.
+ * 
+ * Slot i pairs column <code>colOrder[i]</code> with row
+ * <code>rowOrder[i]</code>. If one group is larger, its last columns are not
+ * paired. The columns may differ in length, in which case a pair has as many
+ * symbols as its shortest column, and the length of the text depends on the
+ * arrangement.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Analysis#indexOfCoincidence(String)
+ * @see PolybiusSquare#unFraction(List, List)
+ */
+public class CoincidenceEvaluator {
+    /** Number of symbols in the plain alphabet. */
+    private static final int SYMBOLS = 36;
+
+    /** Symbol counts of every pair of a column and a row. */
+    private final int[][][] pairCounts;
+    /** Number of symbols of every pair of a column and a row. */
+    private final int[][] pairLengths;
+    /** Number of paired slots. */
+    private final int slots;
+    /** Number of symbols in the text. */
+    private int length;
+    /** Column in every slot. */
+    private final int[] colOrder;
+    /** Row in every slot. */
+    private final int[] rowOrder;
+    /** Symbol counts of the text. */
+    private final int[] counts = new int[SYMBOLS];
+    /** Sum of <code>f * (f - 1)</code> over the symbol counts. */
+    private long coincidences;
+
+    /**
+     * Creates an evaluator for the given columns and rows, in their current
+     * order.
+     * 
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     */
+    public CoincidenceEvaluator(final List<Column> col,
+            final List<Column> row) {
+        slots = Math.min(col.size(), row.size());
+
+        pairCounts = new int[col.size()][row.size()][SYMBOLS];
+        pairLengths = new int[col.size()][row.size()];
+        for (int c = 0; c < col.size(); c++) {
+            final Column column = col.get(c);
+
+            for (int r = 0; r < row.size(); r++) {
+                final Column columnOfRow = row.get(r);
+                final int[] pair = pairCounts[c][r];
+                final int rows = Math.min(column.size(), columnOfRow.size());
+                pairLengths[c][r] = rows;
+
+                for (int j = 0; j < rows; j++) {
+                    pair[columnOfRow.get(j) * 6 + column.get(j)]++;
+                }
+            }
+        }
+
+        colOrder = new int[col.size()];
+        for (int i = 0; i < colOrder.length; i++) {
+            colOrder[i] = i;
+        }
+        rowOrder = new int[row.size()];
+        for (int i = 0; i < rowOrder.length; i++) {
+            rowOrder[i] = i;
+        }
+
+        count();
+    }
+
+    /**
+     * Recounts the symbols of the current arrangement.
+     */
+    private void count() {
+        for (int k = 0; k < SYMBOLS; k++) {
+            counts[k] = 0;
+        }
+
+        length = 0;
+        for (int i = 0; i < slots; i++) {
+            add(i, 1);
+            length += pairLengths[colOrder[i]][rowOrder[i]];
+        }
+
+        coincidences = 0;
+        for (int k = 0; k < SYMBOLS; k++) {
+            coincidences += counts[k] * (counts[k] - 1);
+        }
+    }
+
+    /**
+     * Adds or removes the symbols of a slot, without updating the
+     * coincidences.
+     * 
+     * @param slot
+     *            Slot
+     * @param sign
+     *            1 to add, -1 to remove
+     */
+    private void add(final int slot, final int sign) {
+        final int[] pair = pairCounts[colOrder[slot]][rowOrder[slot]];
+
+        for (int k = 0; k < SYMBOLS; k++) {
+            counts[k] += sign * pair[k];
+        }
+    }
+
+    /**
+     * Adds or removes the symbols of a slot, and updates the coincidences and
+     * the length.
+     * 
+     * @param slot
+     *            Slot, ignored if it is not paired
+     * @param sign
+     *            1 to add, -1 to remove
+     */
+    private void update(final int slot, final int sign) {
+        if (slot >= slots) {
+            return;
+        }
+
+        final int[] pair = pairCounts[colOrder[slot]][rowOrder[slot]];
+        length += sign * pairLengths[colOrder[slot]][rowOrder[slot]];
+
+        for (int k = 0; k < SYMBOLS; k++) {
+            if (pair[k] != 0) {
+                final int f = counts[k];
+                final int g = f + sign * pair[k];
+                coincidences += g * (g - 1) - f * (f - 1);
+                counts[k] = g;
+            }
+        }
+    }
+
+    /**
+     * Sets the arrangement.
+     * 
+     * @param cols
+     *            Column index in every slot
+     * @param rows
+     *            Row index in every slot
+     * @return Fitness of the arrangement
+     */
+    public float setOrder(final int[] cols, final int[] rows) {
+        System.arraycopy(cols, 0, colOrder, 0, colOrder.length);
+        System.arraycopy(rows, 0, rowOrder, 0, rowOrder.length);
+        count();
+        return getFitness();
+    }
+
+    /**
+     * Swaps the columns of two slots.
+     * 
+     * @param i
+     *            First slot
+     * @param j
+     *            Second slot
+     * @return Fitness of the new arrangement
+     */
+    public float swapColumns(final int i, final int j) {
+        update(i, -1);
+        update(j, -1);
+
+        final int tmp = colOrder[i];
+        colOrder[i] = colOrder[j];
+        colOrder[j] = tmp;
+
+        update(i, 1);
+        update(j, 1);
+        return getFitness();
+    }
+
+    /**
+     * Swaps the rows of two slots.
+     * 
+     * @param i
+     *            First slot
+     * @param j
+     *            Second slot
+     * @return Fitness of the new arrangement
+     */
+    public float swapRows(final int i, final int j) {
+        update(i, -1);
+        update(j, -1);
+
+        final int tmp = rowOrder[i];
+        rowOrder[i] = rowOrder[j];
+        rowOrder[j] = tmp;
+
+        update(i, 1);
+        update(j, 1);
+        return getFitness();
+    }
+
+    /**
+     * Gets the index of coincidence of the current arrangement, computed the
+     * same way as <code>Analysis.indexOfCoincidence</code>.
+     * 
+     * @return Index of coincidence
+     */
+    public float getFitness() {
+        return (float) coincidences * Encryption.plainAlphabet.length()
+                / (length * (length - 1));
+    }
+
+    /**
+     * Gets the column in every slot. The array is not copied.
+     * 
+     * @return Column indices
+     */
+    public int[] getColumnOrder() {
+        return colOrder;
+    }
+
+    /**
+     * Gets the row in every slot. The array is not copied.
+     * 
+     * @return Row indices
+     */
+    public int[] getRowOrder() {
+        return rowOrder;
+    }
+}
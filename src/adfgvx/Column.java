@@ -0,0 +1,128 @@
+package adfgvx;
+
+/**
+ * A view of a column of the transposition grid. The symbols are not copied:
+ * the view refers to a range of the packed symbol array of the grid, in which
+ * every symbol is stored as its index in <code>PolybiusSquare.keyName</code>.
+ * 
+ * Two columns are equal if they contain the same symbols, like lists.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Grid
+ */
+public class Column {
+    /** Packed symbols of the grid. */
+    private final byte[] symbols;
+    /** Position of the first symbol of this column. */
+    private final int offset;
+    /** Number of symbols in this column. */
+    private final int length;
+    /** Index of the column when the text was added to the grid. */
+    private final int index;
+
+    /**
+     * Creates a view of a column.
+     * 
+     * @param symbols
+     *            Packed symbols of the grid
+     * @param offset
+     *            Position of the first symbol of this column
+     * @param length
+     *            Number of symbols in this column
+     * @param index
+     *            Index of the column when the text was added to the grid
+     */
+    public Column(final byte[] symbols, final int offset, final int length,
+            final int index) {
+        this.symbols = symbols;
+        this.offset = offset;
+        this.length = length;
+        this.index = index;
+    }
+
+    /**
+     * Gets a symbol.
+     * 
+     * @param row
+     *            Row of the symbol
+     * @return Index of the symbol in <code>keyName</code>
+     */
+    public int get(final int row) {
+        return symbols[offset + row];
+    }
+
+    /**
+     * Gets a symbol as a key name.
+     * 
+     * @param row
+     *            Row of the symbol
+     * @return Key name
+     */
+    public char getKeyName(final int row) {
+        return PolybiusSquare.keyName[symbols[offset + row]];
+    }
+
+    /**
+     * Gets the number of symbols in this column.
+     * 
+     * @return Number of symbols
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Gets the index of the column when the text was added to the grid, which
+     * does not change when the columns are switched.
+     * 
+     * @return Column index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (obj == this) {
+            return true;
+        }
+
+        if (obj == null || obj.getClass() != this.getClass()) {
+            return false;
+        }
+
+        final Column other = (Column) obj;
+        if (length != other.length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (symbols[offset + i] != other.symbols[other.offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + symbols[offset + i];
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer buffer = new StringBuffer(length);
+        for (int i = 0; i < length; i++) {
+            buffer.append(getKeyName(i));
+        }
+
+        return buffer.toString();
+    }
+}
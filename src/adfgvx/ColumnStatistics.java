@@ -0,0 +1,89 @@
+package adfgvx;
+
+import java.util.List;
+
+/**
+ * Symbol counts of a column of the transposition grid. The counts are stored
+ * in the order of <code>PolybiusSquare.keyName</code>, together with the index
+ * of the column in the grid, so that columns with the same counts can still be
+ * told apart.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see RowIdentifier
+ */
+public class ColumnStatistics {
+    /** Index of the column in the grid. */
+    private final int index;
+    /** Count of every symbol of <code>PolybiusSquare.keyName</code>. */
+    private final int[] histogram = new int[PolybiusSquare.keyName.length];
+
+    /**
+     * Creates empty statistics for a column.
+     * 
+     * @param index
+     *            Index of the column in the grid
+     */
+    public ColumnStatistics(final int index) {
+        this.index = index;
+    }
+
+    /**
+     * Counts the symbols of every column of a grid.
+     * 
+     * @param grid
+     *            Transposition grid
+     * @return Statistics of every column, in the order of the grid
+     */
+    public static ColumnStatistics[] fromGrid(final Grid grid) {
+        final List<Column> columns = grid.getGrid();
+        final ColumnStatistics[] statistics =
+                new ColumnStatistics[columns.size()];
+
+        for (int i = 0; i < statistics.length; i++) {
+            final Column column = columns.get(i);
+            statistics[i] = new ColumnStatistics(i);
+
+            final int[] histogram = statistics[i].histogram;
+            for (int j = 0; j < column.size(); j++) {
+                histogram[column.get(j)]++;
+            }
+        }
+
+        return statistics;
+    }
+
+    /**
+     * Gets the index of the column in the grid.
+     * 
+     * @return Column index
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the counts of the symbols. The array is not copied.
+     * 
+     * @return Count of every symbol of <code>PolybiusSquare.keyName</code>
+     */
+    public int[] getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuffer buffer = new StringBuffer();
+        buffer.append(index).append(": {");
+
+        for (int i = 0; i < histogram.length; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            buffer.append(PolybiusSquare.keyName[i]).append('=')
+                    .append(histogram[i]);
+        }
+
+        return buffer.append('}').toString();
+    }
+}
@@ -0,0 +1,124 @@
+package adfgvx;
+
+/**
+ * Precomputed contributions of tetragrams to the fitness of a text of a given
+ * length. The contribution of a tetragram only depends on its count in the
+ * text and its reference log frequency. The log frequency of every count is
+ * computed once per text, and the Gaussian term is read from a table that is
+ * quantized in the difference of the log frequencies, so that scoring a
+ * tetragram is a few table reads.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Tetragram
+ */
+class ContributionTable {
+    /** Largest difference of log frequencies in the Gaussian table. */
+    private static final double RANGE = 32.0;
+    /** Number of steps per unit of log frequency. */
+    private static final double STEPS = 256.0;
+
+    /** Gaussian term by quantized difference of log frequencies. */
+    private static double[] gaussian;
+
+    /** Tetragram table that defines the exact contribution. */
+    private final Tetragram tetragram;
+    /** True if the contributions are calculated instead of looked up. */
+    private final boolean exact;
+    /** Log frequency of a tetragram in the text, by its count. */
+    private final double[] logFrequencies;
+    /** Quantized log frequency of a tetragram in the text, by its count. */
+    private final double[] steps;
+
+    /**
+     * Creates the table for a text.
+     * 
+     * @param tetragram
+     *            Tetragram table that defines the exact contribution
+     * @param windowCount
+     *            Number of tetragrams in the text
+     * @param exact
+     *            True to calculate the contributions instead of looking up
+     *            the Gaussian term
+     */
+    ContributionTable(final Tetragram tetragram, final int windowCount,
+            final boolean exact) {
+        this.tetragram = tetragram;
+        this.exact = exact;
+
+        logFrequencies = new double[windowCount + 1];
+        steps = new double[windowCount + 1];
+
+        for (int i = 1; i <= windowCount; i++) {
+            logFrequencies[i] = Math.log((double) i / (double) windowCount);
+            steps[i] = (logFrequencies[i] + RANGE) * STEPS + 0.5;
+        }
+
+        if (!exact) {
+            createGaussian(tetragram);
+        }
+    }
+
+    /**
+     * Fills the Gaussian table, which is shared by all texts.
+     * 
+     * @param tetragram
+     *            Tetragram table that defines the exact contribution
+     */
+    private static synchronized void createGaussian(final Tetragram tetragram) {
+        if (gaussian != null) {
+            return;
+        }
+
+        final double[] table = new double[(int) (2 * RANGE * STEPS) + 1];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = tetragram.getContributionToFitness(0.0, i / STEPS
+                    - RANGE);
+        }
+
+        gaussian = table;
+    }
+
+    /**
+     * Gets the number of tetragrams in the text.
+     * 
+     * @return Number of tetragrams
+     */
+    int getWindowCount() {
+        return logFrequencies.length - 1;
+    }
+
+    /**
+     * Checks if the contributions are calculated instead of looked up.
+     * 
+     * @return True if the contributions are exact
+     */
+    boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Gets the contribution of a tetragram to the fitness.
+     * 
+     * @param sourceLogFreq
+     *            Log frequency of the tetragram in the reference text, or 0
+     *            if it is unknown
+     * @param count
+     *            Number of appearances of the tetragram in the text
+     * @return Contribution to the fitness
+     */
+    double get(final double sourceLogFreq, final int count) {
+        // NOTE: this makes the convergence much slower!
+        if (sourceLogFreq == 0 || count == 0) {
+            return 0.0;
+        }
+
+        if (exact) {
+            return tetragram.getContributionToFitness(sourceLogFreq,
+                    logFrequencies[count]);
+        }
+
+        final int index = (int) (steps[count] - sourceLogFreq * STEPS);
+        return index >= 0 && index < gaussian.length ? gaussian[index] : 0.0;
+    }
+}
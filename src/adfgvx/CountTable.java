@@ -0,0 +1,121 @@
+package adfgvx;
+
+import java.util.Arrays;
+
+/**
+ * Counts of tetragram codes in a hash table with open addressing. A text only
+ * has as many different tetragrams as it has windows, so the table is sized
+ * to the text instead of to every possible code.
+ * 
+ * A code keeps its slot until the table is cleared, also when its count drops
+ * to 0. A caller can thus keep the slot of a code and count it again without
+ * a lookup. Codes are never removed, so the caller clears the table and counts
+ * again when it gets crowded.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see SubstitutionState
+ */
+class CountTable {
+    /** Key of an empty slot. */
+    private static final int EMPTY = -1;
+    /** Multiplier of the hash, the golden ratio in fixed point. */
+    private static final int GOLDEN = 0x9E3779B9;
+    /** Number of slots per code with a count above 0. */
+    private static final int SLOTS_PER_CODE = 8;
+
+    /** Code in every slot, or <code>EMPTY</code>. */
+    private final int[] codes;
+    /** Count of the code in every slot. */
+    private final int[] counts;
+    /** Number of slots minus 1. */
+    private final int mask;
+    /** Shift that keeps the bits of the hash that index a slot. */
+    private final int shift;
+    /** Number of slots that hold a code. */
+    private int used;
+
+    /**
+     * Creates an empty table.
+     * 
+     * @param maxCodes
+     *            Largest number of codes with a count above 0
+     */
+    CountTable(final int maxCodes) {
+        final int size = Math.max(16, Integer.highestOneBit(Math.max(1,
+                maxCodes * SLOTS_PER_CODE) - 1) << 1);
+
+        codes = new int[size];
+        counts = new int[size];
+        mask = size - 1;
+        shift = Integer.numberOfLeadingZeros(size) + 1;
+        clear();
+    }
+
+    /**
+     * Removes all codes.
+     */
+    void clear() {
+        Arrays.fill(codes, EMPTY);
+        used = 0;
+    }
+
+    /**
+     * Checks if adding codes could fill more than half of the slots, after
+     * which the probes get long.
+     * 
+     * @param added
+     *            Largest number of codes that will be added
+     * @return True if the table should be cleared first
+     */
+    boolean isCrowded(final int added) {
+        return used + added > codes.length / 2;
+    }
+
+    /**
+     * Gets the slot of a code. A code that is not in the table is added with
+     * a count of 0.
+     * 
+     * @param code
+     *            Tetragram code
+     * @return Slot
+     */
+    int slot(final int code) {
+        int slot = (code * GOLDEN) >>> shift;
+
+        while (codes[slot] != code) {
+            if (codes[slot] == EMPTY) {
+                codes[slot] = code;
+                counts[slot] = 0;
+                used++;
+                break;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Adds 1 to the count of the code in a slot.
+     * 
+     * @param slot
+     *            Slot of the code
+     * @return Count before the increment
+     */
+    int increment(final int slot) {
+        return counts[slot]++;
+    }
+
+    /**
+     * Subtracts 1 from the count of the code in a slot.
+     * 
+     * @param slot
+     *            Slot of the code
+     * @return Count before the decrement
+     */
+    int decrement(final int slot) {
+        return counts[slot]--;
+    }
+}
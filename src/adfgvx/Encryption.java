@@ -1,6 +1,7 @@
 package adfgvx;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -16,6 +17,15 @@ import java.util.Map;
 public class Encryption {
     /** The reference alphabet (English). */
     public static String plainAlphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
+    /** Index of every character in <code>plainAlphabet</code>, or -1. */
+    private static final byte[] SYMBOL_INDEX = new byte[256];
+
+    static {
+        Arrays.fill(SYMBOL_INDEX, (byte) -1);
+        for (int i = 0; i < plainAlphabet.length(); i++) {
+            SYMBOL_INDEX[plainAlphabet.charAt(i)] = (byte) i;
+        }
+    }
 
     /**
      * Transcribes a cipher text to a new one using the <code>alphabet</code>
@@ -40,6 +50,88 @@ public class Encryption {
         return newText;
     }
 
+    /**
+     * Transcribes a cipher text to a new one using a substitution. No objects
+     * are allocated.
+     * 
+     * @param cipherText
+     *            Cipher text as indices in <code>plainAlphabet</code>
+     * @param substitution
+     *            Substitution from cipher text to plain text
+     * @param plainText
+     *            Buffer for the transcribed text, at least as long as the
+     *            cipher text
+     */
+    public static void transcribe(final byte[] cipherText,
+            final Substitution substitution, final byte[] plainText) {
+        for (int i = 0; i < cipherText.length; i++) {
+            plainText[i] = (byte) substitution.get(cipherText[i]);
+        }
+    }
+
+    /**
+     * Transcribes a cipher text to a new one using a substitution.
+     * 
+     * @param cipherText
+     *            Cipher text as indices in <code>plainAlphabet</code>
+     * @param substitution
+     *            Substitution from cipher text to plain text
+     * @return Transcribed text
+     */
+    public static String transcribeCipherText(final byte[] cipherText,
+            final Substitution substitution) {
+        final char[] newTextArray = new char[cipherText.length];
+        for (int i = 0; i < newTextArray.length; i++) {
+            newTextArray[i] = plainAlphabet.charAt(substitution
+                    .get(cipherText[i]));
+        }
+
+        return new String(newTextArray);
+    }
+
+    /**
+     * Converts a text to the indices of its symbols in
+     * <code>plainAlphabet</code>.
+     * 
+     * @param text
+     *            Text consisting of symbols of <code>plainAlphabet</code>
+     * @return Symbol indices
+     */
+    public static byte[] toSymbols(final String text) {
+        final byte[] symbols = new byte[text.length()];
+
+        for (int i = 0; i < symbols.length; i++) {
+            final char c = text.charAt(i);
+            final int index = c < SYMBOL_INDEX.length ? SYMBOL_INDEX[c] : -1;
+
+            if (index < 0) {
+                throw new IllegalArgumentException("Symbol '" + text.charAt(i)
+                        + "' is not in the alphabet.");
+            }
+
+            symbols[i] = (byte) index;
+        }
+
+        return symbols;
+    }
+
+    /**
+     * Converts symbol indices in <code>plainAlphabet</code> to a text.
+     * 
+     * @param symbols
+     *            Symbol indices
+     * @return Text
+     */
+    public static String toText(final byte[] symbols) {
+        final char[] text = new char[symbols.length];
+
+        for (int i = 0; i < symbols.length; i++) {
+            text[i] = plainAlphabet.charAt(symbols[i]);
+        }
+
+        return new String(text);
+    }
+
     /**
      * Generates a random alphabet. It uses <code>plainAlphabet</code> to get
      * all the characters.
@@ -3,23 +3,36 @@ package adfgvx;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-
-import org.apache.log4j.Logger;
+import java.util.Random;
 
 /**
- * This class represents the transposition grid.
+ * This class represents the transposition grid. The symbols are stored as
+ * their index in <code>PolybiusSquare.keyName</code> in a single byte array,
+ * column by column, so that a column is a contiguous range. Switching columns
+ * only rearranges the order of the columns, and the columns are exposed as
+ * views of the array.
+ * 
+ * The text does not have to fill the last row. The first columns of the text
+ * as it was added then have one more symbol than the others, and every column
+ * keeps its length when the columns are switched. The length of a column is
+ * thus given by the key order and the remainder of the text length, and a
+ * cipher text can only be put back in its grid when the key is known.
  * 
  * @author Ben Ruijl
  * 
+ * @see Column
  */
 public class Grid {
-    /** Logger. */
-    private static final Logger LOG = Logger.getLogger(Grid.class);
-
     /** The amount of columns in the grid. */
     private final int dimension;
-    /** Grid characters. */
-    private List<List<Character>> grid;
+    /** Symbols of the grid, column by column. */
+    private byte[] symbols = new byte[0];
+    /** Number of symbols in the grid. */
+    private int length;
+    /** Index in <code>symbols</code> of the column at every position. */
+    private final int[] order;
+    /** Views of the columns, in the order of the grid. */
+    private List<Column> columns;
 
     /**
      * Creates a new grid.
@@ -30,49 +43,166 @@ public class Grid {
     public Grid(final int columnCount) {
         dimension = columnCount;
 
-        grid = new ArrayList<List<Character>>(columnCount);
-
+        order = new int[columnCount];
         for (int i = 0; i < columnCount; i++) {
-            grid.add(new ArrayList<Character>());
+            order[i] = i;
         }
+
+        updateColumns();
     }
 
     /**
      * Clears the grid.
      */
     public void clear() {
+        symbols = new byte[0];
+        length = 0;
+        updateColumns();
+    }
+
+    /**
+     * Gets the number of symbols of a column, as stored.
+     * 
+     * @param column
+     *            Index in <code>symbols</code>
+     * @param size
+     *            Number of symbols in the grid
+     * @return Number of symbols in the column
+     */
+    private int columnLength(final int column, final int size) {
+        return size / dimension + (column < size % dimension ? 1 : 0);
+    }
+
+    /**
+     * Gets the position of the first symbol of a column, as stored.
+     * 
+     * @param column
+     *            Index in <code>symbols</code>
+     * @param size
+     *            Number of symbols in the grid
+     * @return Position in <code>symbols</code>
+     */
+    private int columnOffset(final int column, final int size) {
+        return column * (size / dimension) + Math.min(column, size % dimension);
+    }
+
+    /**
+     * Creates the views of the columns.
+     */
+    private void updateColumns() {
+        final List<Column> views = new ArrayList<Column>(dimension);
+
         for (int i = 0; i < dimension; i++) {
-            grid.clear();
+            views.add(new Column(symbols, columnOffset(order[i], length),
+                    columnLength(order[i], length), order[i]));
         }
+
+        columns = views;
     }
 
     /**
-     * Add text to the grid.
+     * Add text to the grid. The text is written row by row, continuing after
+     * the text that is already in the grid.
      * 
      * @param data
-     *            Text
+     *            Text consisting of symbols of <code>keyName</code>
      */
     public void add(final String data) {
-        for (int i = 0; i < data.length(); i++) {
-            grid.get(i % dimension).add(data.charAt(i));
+        final byte[] indices = new byte[data.length()];
+        PolybiusSquare.toKeyNameIndices(data, indices);
+        add(indices, indices.length);
+    }
+
+    /**
+     * Add symbols to the grid. The symbols are written row by row, continuing
+     * after the symbols that are already in the grid.
+     * 
+     * @param data
+     *            Indices in <code>keyName</code> of the symbols
+     * @param count
+     *            Number of symbols to add
+     */
+    public void add(final byte[] data, final int count) {
+        final int size = length + count;
+        final byte[] packed = new byte[size];
+
+        for (int c = 0; c < dimension; c++) {
+            System.arraycopy(symbols, columnOffset(c, length), packed,
+                    columnOffset(c, size), columnLength(c, length));
+        }
+
+        // scatter every row of the new symbols over the columns
+        for (int c = 0; c < dimension; c++) {
+            final int first = ((c - length) % dimension + dimension)
+                    % dimension;
+            int target = columnOffset(c, size) + columnLength(c, length);
+
+            for (int i = first; i < count; i += dimension) {
+                packed[target++] = data[i];
+            }
         }
+
+        symbols = packed;
+        length = size;
+        updateColumns();
     }
 
     /**
-     * Switches columns in the grid according to the key.
+     * Switches columns in the grid according to the key. Only the order of
+     * the columns changes, the symbols are not moved.
      * 
      * @param key
      *            Transposition key
      */
     public void switchColumns(final List<Integer> key) {
-        final List<List<Character>> transposedGrid = new ArrayList<List<Character>>(
-                dimension);
+        final int[] previous = order.clone();
 
         for (int i = 0; i < key.size(); i++) {
-            transposedGrid.add(grid.get(key.get(i)));
+            order[i] = previous[key.get(i)];
+        }
+
+        updateColumns();
+    }
+
+    /**
+     * Rebuilds the grid of a cipher text from its transposition key. This is
+     * the inverse of switching the columns by the key and encoding: the
+     * columns are in the order of the cipher text, and the last row only has
+     * the symbols of the columns that were long before they were switched.
+     * 
+     * @param cipherText
+     *            Indices in <code>keyName</code> of the cipher text symbols
+     * @param count
+     *            Number of symbols of the cipher text
+     * @param key
+     *            Transposition key
+     * @return Grid of the cipher text
+     */
+    public static Grid decode(final byte[] cipherText, final int count,
+            final List<Integer> key) {
+        final int dimension = key.size();
+        final int rows = count / dimension;
+        final int remainder = count % dimension;
+        final byte[] text = new byte[count];
+
+        // undo the readout of encode
+        int last = rows * dimension;
+        for (int i = 0; i < dimension; i++) {
+            final int column = key.get(i);
+
+            for (int j = 0; j < rows; j++) {
+                text[j * dimension + column] = cipherText[j * dimension + i];
+            }
+
+            if (column < remainder) {
+                text[rows * dimension + column] = cipherText[last++];
+            }
         }
 
-        grid = transposedGrid;
+        final Grid grid = new Grid(dimension);
+        grid.add(text, count);
+        grid.switchColumns(key);
+        return grid;
     }
 
     /**
@@ -83,13 +213,27 @@ public class Grid {
      * @return Random key
      */
     public static List<Integer> generateRandomKey(final int length) {
+        return generateRandomKey(length, new Random());
+    }
+
+    /**
+     * Generates a random key.
+     * 
+     * @param length
+     *            Key length
+     * @param random
+     *            Random number generator
+     * @return Random key
+     */
+    public static List<Integer> generateRandomKey(final int length,
+            final Random random) {
         final List<Integer> key = new ArrayList<Integer>(length);
 
         for (int i = 0; i < length; i++) {
             key.add(i);
         }
 
-        Collections.shuffle(key);
+        Collections.shuffle(key, random);
 
         return key;
     }
@@ -99,42 +243,74 @@ public class Grid {
      * 
      * @param index
      *            Index of column
-     * @return List of characters in the column
+     * @return View of the column
      */
-    public List<Character> getColumn(final int index) {
-        return grid.get(index);
+    public Column getColumn(final int index) {
+        return columns.get(index);
     }
 
     /**
-     * Gets the entire grid.
+     * Gets the entire grid. The same views are returned until the grid
+     * changes.
      * 
-     * @return Grid
+     * @return Views of the columns, in the order of the grid
      */
-    public List<List<Character>> getGrid() {
-        return grid;
+    public List<Column> getGrid() {
+        return columns;
     }
 
     /**
-     * Encodes the grid by doing a vertical readout.
+     * Gets the number of symbols in the grid.
      * 
-     * @return Encoded text
+     * @return Number of symbols
      */
-    public String encode() {
-        final StringBuffer result = new StringBuffer();
+    public int size() {
+        return length;
+    }
+
+    /**
+     * Encodes the grid by doing a vertical readout into a buffer. If the last
+     * row is not full, it only has the symbols of the longer columns.
+     * 
+     * @param buffer
+     *            Buffer for the index in <code>keyName</code> of every
+     *            symbol, of at least <code>size()</code> bytes
+     * @return Number of symbols written
+     */
+    public int encode(final byte[] buffer) {
+        final int rows = length / dimension;
+        final int remainder = length % dimension;
 
-        final int size = grid.get(0).size();
+        int last = rows * dimension;
+        for (int i = 0; i < dimension; i++) {
+            final int offset = columnOffset(order[i], length);
 
-        for (int j = 0; j < size; j++) {
-            for (int i = 0; i < dimension; i++) {
-                if (size != grid.get(i).size()) {
-                    LOG.fatal("Grid data is not rectangular.");
-                    break;
-                }
+            for (int j = 0; j < rows; j++) {
+                buffer[j * dimension + i] = symbols[offset + j];
+            }
 
-                result.append(grid.get(i).get(j));
+            if (order[i] < remainder) {
+                buffer[last++] = symbols[offset + rows];
             }
         }
 
-        return result.toString();
+        return length;
+    }
+
+    /**
+     * Encodes the grid by doing a vertical readout.
+     * 
+     * @return Encoded text
+     */
+    public String encode() {
+        final byte[] buffer = new byte[length];
+        final int size = encode(buffer);
+
+        final char[] result = new char[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = PolybiusSquare.keyName[buffer[i]];
+        }
+
+        return new String(result);
     }
 }
@@ -0,0 +1,229 @@
+package adfgvx;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds that many threads can record into
+ * without locking. Every power of two is split into four buckets, so a
+ * percentile is at most a quarter of its value too high. The buckets are
+ * striped counters, so recording is cheap even when the threads of a search
+ * finish at the same time.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Metrics
+ */
+public class LatencyHistogram {
+    /** Number of buckets per power of two. */
+    private static final int SUB_BUCKETS = 4;
+    /** Number of bits of a bucket within its power of two. */
+    private static final int SUB_BITS = 2;
+    /** Number of buckets for latencies up to 2^63. */
+    private static final int BUCKETS = 2 * SUB_BUCKETS + (63 - SUB_BITS - 1)
+            * SUB_BUCKETS;
+
+    /** Number of latencies in every bucket. */
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    /** Number of latencies. */
+    private final LongAdder count = new LongAdder();
+    /** Sum of the latencies. */
+    private final LongAdder sum = new LongAdder();
+    /** Highest latency. */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Finds the bucket of a latency.
+     * 
+     * @param nanos
+     *            Latency in nanoseconds, at least 0
+     * @return Bucket index
+     */
+    private static int bucket(final long nanos) {
+        if (nanos < 2 * SUB_BUCKETS) {
+            return (int) nanos;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int sub = (int) (nanos >>> (exponent - SUB_BITS))
+                & (SUB_BUCKETS - 1);
+        return 2 * SUB_BUCKETS + (exponent - SUB_BITS - 1) * SUB_BUCKETS
+                + sub;
+    }
+
+    /**
+     * Gets the highest latency of a bucket.
+     * 
+     * @param bucket
+     *            Bucket index
+     * @return Latency in nanoseconds
+     */
+    private static long upperBound(final int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+
+        final int exponent = (bucket - 2 * SUB_BUCKETS) / SUB_BUCKETS
+                + SUB_BITS + 1;
+        final long sub = SUB_BUCKETS + (bucket - 2 * SUB_BUCKETS)
+                % SUB_BUCKETS;
+        final long width = 1L << (exponent - SUB_BITS);
+        return sub * width + width - 1;
+    }
+
+    /**
+     * Records a latency.
+     * 
+     * @param nanos
+     *            Latency in nanoseconds, negative values count as 0
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(nanos, 0);
+        buckets[bucket(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Gets the number of latencies.
+     * 
+     * @return Number of latencies
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Estimates a percentile. While other threads record, the result is
+     * approximate.
+     * 
+     * @param percentile
+     *            Percentile between 0 and 100
+     * @return Highest latency of the bucket of the percentile, in
+     *         nanoseconds, or 0 if nothing was recorded
+     */
+    public long getPercentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+
+        final long rank = (long) Math.ceil(percentile / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Takes a snapshot of the histogram in milliseconds.
+     * 
+     * @return Snapshot
+     */
+    public Snapshot snapshot() {
+        final long n = count.sum();
+        return new Snapshot(n, n == 0 ? 0 : sum.sum() / (double) n / 1e6,
+                getPercentile(50) / 1e6, getPercentile(99) / 1e6,
+                max.get() / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+
+    /**
+     * The state of a histogram at one moment, in milliseconds. The getters
+     * make it an open type, so that it can be read over JMX.
+     */
+    public static class Snapshot {
+        /** Number of latencies. */
+        private final long count;
+        /** Mean latency. */
+        private final double mean;
+        /** Median latency. */
+        private final double median;
+        /** 99th percentile of the latencies. */
+        private final double p99;
+        /** Highest latency. */
+        private final double max;
+
+        public Snapshot(final long count, final double mean,
+                final double median, final double p99, final double max) {
+            this.count = count;
+            this.mean = mean;
+            this.median = median;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        /**
+         * Gets the number of latencies.
+         * 
+         * @return Number of latencies
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the mean latency.
+         * 
+         * @return Mean in milliseconds
+         */
+        public double getMeanMillis() {
+            return mean;
+        }
+
+        /**
+         * Gets the median latency.
+         * 
+         * @return Median in milliseconds
+         */
+        public double getMedianMillis() {
+            return median;
+        }
+
+        /**
+         * Gets the 99th percentile of the latencies.
+         * 
+         * @return Percentile in milliseconds
+         */
+        public double getP99Millis() {
+            return p99;
+        }
+
+        /**
+         * Gets the highest latency.
+         * 
+         * @return Maximum in milliseconds
+         */
+        public double getMaxMillis() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d, mean %.2f ms, median %.2f ms, "
+                    + "p99 %.2f ms, max %.2f ms", count, mean, median, p99,
+                    max);
+        }
+    }
+}
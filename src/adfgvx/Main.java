@@ -3,10 +3,16 @@ package adfgvx;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -14,8 +20,11 @@ import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncAppender;
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
 import utils.Utils;
@@ -30,6 +39,14 @@ import utils.Utils;
 public class Main {
     /** Logger. */
     private static final Logger LOG = Logger.getLogger(Main.class);
+    /** Number of events the asynchronous appender buffers. */
+    private static final int ASYNC_BUFFER_SIZE = 1024;
+    /**
+     * Text lengths of the report. Every full grid of the default keys is
+     * paired with a ragged one of one more character.
+     */
+    private static final String DEFAULT_REPORT_LENGTHS =
+	    "240,241,420,421,840,841";
 
     private static final String cipherTextTest2 = "DAVFGDFVDDVFGDVADVVFFGDVAVVDFVD"
 	    + "DDXDAFADADVAGADVFAGADDFGXAGXAAADAVGFGFAGGFVVFDGGGFAGXGVVFDADAGAVDVVFGXGFFVVDD"
@@ -53,24 +70,45 @@ public class Main {
      * 
      * @param cipherText
      *            Cipher text / source file
-     * @param pat
-     *            Filename of pattern frequencies
      * @param tet
      *            Filename of tetgram frequencies
+     * @param threads
+     *            Number of trials that run at the same time
+     * @param seed
+     *            Seed of the trials
+     * @param report
+     *            Filename of the stage report, or <code>null</code> for a
+     *            default run
+     * @param keyLengths
+     *            Key lengths of the report
+     * @param textLengths
+     *            Text lengths of the report
+     * @param trials
+     *            Number of trials per key and text length of the report
      */
-    public Main(final String cipherText, final String pat, final String tet) {
+    public Main(final String cipherText, final String tet, final int threads,
+	    final long seed, final String report, final int[] keyLengths,
+	    final int[] textLengths, final int trials) {
 	try {
-	    final Pattern pattern = new Pattern(pat);
+	    final Pattern pattern = new Pattern();
 	    final Tetragram tetragram = new Tetragram(tet);
 	    final Analysis analysis = new Analysis(pattern, tetragram);
 
 	    final String largeText = readCipher(cipherText);
 
-	    for (int i = 0; i < 1000; i++) {
-		analysis.doAnalysis(largeText, 2); // do analysis
+	    final TrialRunner runner = new TrialRunner(analysis, threads);
+
+	    if (report != null) {
+		runner.report(largeText, trials, keyLengths, textLengths, seed)
+			.write(report);
+		LOG.info("Stage report written to " + report);
+		return;
 	    }
 
-	    LOG.info("Correct ones: " + analysis.getCorrectAnalysis());
+	    final TrialRunner.Summary summary = runner.run(largeText, 1000, 2,
+		    seed); // do analysis
+
+	    LOG.info("Correct ones: " + summary.getCorrect());
 
 	    // analysis.doHillclimbTestRun(largeText); // just solve a mono sub
 	    // analysis.decrypt(cipherTextTest, 16);
@@ -87,7 +125,7 @@ public class Main {
      *            Filename
      * @return Stripped text
      */
-    public final String readCipher(final String filename) {
+    public static String readCipher(final String filename) {
 	String file;
 	try {
 	    file = new Scanner(new File(filename)).useDelimiter("\\Z").next();
@@ -100,6 +138,62 @@ public class Main {
 	return null;
     }
 
+    /**
+     * Parses a comma separated list of numbers.
+     * 
+     * @param list
+     *            List of numbers
+     * @return Numbers
+     */
+    private static int[] parseList(final String list) {
+	final String[] items = list.split(",");
+	final int[] numbers = new int[items.length];
+	for (int i = 0; i < items.length; i++) {
+	    numbers[i] = Integer.parseInt(items[i].trim());
+	}
+
+	return numbers;
+    }
+
+    /**
+     * Sets the level of the root logger, and can move its appenders behind an
+     * asynchronous appender, so that the solver threads do not wait for the
+     * output. When the buffer is full, events are summarized and dropped
+     * instead of blocking the solver.
+     * 
+     * @param level
+     *            Level of the root logger
+     * @param async
+     *            True to log asynchronously
+     */
+    private static void configureLogging(final Level level,
+	    final boolean async) {
+	final Logger root = Logger.getRootLogger();
+	root.setLevel(level);
+
+	if (!async) {
+	    return;
+	}
+
+	final AsyncAppender asyncAppender = new AsyncAppender();
+	asyncAppender.setBufferSize(ASYNC_BUFFER_SIZE);
+	asyncAppender.setBlocking(false);
+
+	// removing the appenders one by one does not close them
+	final List<Appender> appenders = new ArrayList<Appender>();
+	for (final Enumeration<?> e = root.getAllAppenders(); e
+		.hasMoreElements();) {
+	    appenders.add((Appender) e.nextElement());
+	}
+
+	for (final Appender appender : appenders) {
+	    root.removeAppender(appender);
+	    asyncAppender.addAppender(appender);
+	}
+
+	root.addAppender(asyncAppender);
+    }
+
     /**
      * Start of the application.
      * 
@@ -114,13 +208,45 @@ public class Main {
 	final Options options = new Options();
 	options.addOption("v", false, "Be verbose");
 	options.addOption("c", true, "Cipher text");
-	options.addOption("p", true, "Patterns");
 	options.addOption("t", true, "tetragrams");
+	options.addOption("convert", true,
+		"Convert the tetragrams to a mapped table file");
+	options.addOption("build", true,
+		"Build an n-gram table of the given n from the cipher text");
+	options.addOption("o", true, "Output file");
+	options.addOption("bits", true,
+		"Bits per value of a converted table: 64, 16 or 8");
+	options.addOption("compare", true, "Compare scoring with values of "
+		+ "the given bits to doubles on the cipher text");
+	options.addOption("threads", true, "Number of trials that run at "
+		+ "the same time");
+	options.addOption("seed", true, "Seed of the trials");
+	options.addOption("metrics", true, "Log the solver metrics every "
+		+ "given number of seconds");
+	options.addOption("log", true, "Level of the log, for example WARN");
+	options.addOption("async", false, "Write the log from a background "
+		+ "thread");
+	options.addOption("report", true, "Write a stage report of trials "
+		+ "to the given .csv or .jsonl file");
+	options.addOption("keys", true, "Comma separated key lengths of the "
+		+ "report");
+	options.addOption("lengths", true, "Comma separated text lengths of "
+		+ "the report");
+	options.addOption("trials", true, "Number of trials per key and text "
+		+ "length of the report");
+	options.addOption("serve", true, "Solve cipher texts posted to "
+		+ "http://localhost:<port>/solve");
+	options.addOption("workers", true, "Number of cipher texts the "
+		+ "service solves at the same time");
+	options.addOption("queue", true, "Number of cipher texts that can "
+		+ "wait for a worker of the service");
 	options.addOption("help", false, "Display help message");
 
 	final CommandLineParser parser = new GnuParser();
 	try {
 	    final CommandLine cmd = parser.parse(options, args);
+	    configureLogging(Level.toLevel(cmd.getOptionValue("log"),
+		    Level.DEBUG), cmd.hasOption("async"));
 
 	    if (cmd.hasOption("help")) {
 		final HelpFormatter formatter = new HelpFormatter();
@@ -129,9 +255,100 @@ public class Main {
 		return;
 	    }
 
-	    if (cmd.hasOption("c") && cmd.hasOption("p") && cmd.hasOption("t")) {
-		new Main(cmd.getOptionValue("c"), cmd.getOptionValue("p"),
-			cmd.getOptionValue("t"));
+	    if (cmd.hasOption("convert") && cmd.hasOption("t")) {
+		NGramTable.convertLegacy(cmd.getOptionValue("t"), cmd
+			.getOptionValue("convert"), NGramTable
+			.getValueType(Integer.parseInt(cmd.getOptionValue("bits",
+				"64"))));
+		return;
+	    }
+
+	    if (cmd.hasOption("compare") && cmd.hasOption("c")
+		    && cmd.hasOption("t")) {
+		final Analysis analysis = new Analysis(new Pattern(),
+			new Tetragram(cmd.getOptionValue("t")));
+		analysis.doQuantizationTestRun(readCipher(cmd
+			.getOptionValue("c")), NGramTable.getValueType(Integer
+			.parseInt(cmd.getOptionValue("compare"))));
+		return;
+	    }
+
+	    if (cmd.hasOption("build") && cmd.hasOption("c")
+		    && cmd.hasOption("o")) {
+		final NGramTableBuilder builder = new NGramTableBuilder(
+			Encryption.plainAlphabet, Integer.parseInt(cmd
+				.getOptionValue("build")), Runtime.getRuntime()
+				.availableProcessors());
+		builder.build(cmd.getOptionValue("c"), cmd.getOptionValue("o"));
+		return;
+	    }
+
+	    if (cmd.hasOption("serve") && cmd.hasOption("t")) {
+		try {
+		    Metrics.getInstance().register();
+		} catch (final JMException e) {
+		    LOG.warn("Could not register the metrics: " + e.getMessage());
+		}
+
+		// the tables are loaded once and shared by all requests
+		final Analysis analysis = new Analysis(new Pattern(),
+			new Tetragram(cmd.getOptionValue("t")));
+		final SolverService service = new SolverService(analysis,
+			new InetSocketAddress(InetAddress.getLoopbackAddress(),
+				Integer.parseInt(cmd.getOptionValue("serve"))),
+			cmd.hasOption("workers") ? Integer.parseInt(cmd
+				.getOptionValue("workers")) : Runtime
+				.getRuntime().availableProcessors(), Integer
+				.parseInt(cmd.getOptionValue("queue", "16")));
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+		    @Override
+		    public void run() {
+			service.stop();
+		    }
+		});
+
+		service.start();
+		try {
+		    service.awaitStop();
+		} catch (final InterruptedException e) {
+		    service.stop();
+		}
+		return;
+	    }
+
+	    if (cmd.hasOption("c") && cmd.hasOption("t")) {
+		final int threads = cmd.hasOption("threads") ? Integer
+			.parseInt(cmd.getOptionValue("threads")) : Runtime
+			.getRuntime().availableProcessors();
+		final long seed = cmd.hasOption("seed") ? Long.parseLong(cmd
+			.getOptionValue("seed")) : System.nanoTime();
+
+		final Metrics metrics = Metrics.getInstance();
+		try {
+		    metrics.register();
+		} catch (final JMException e) {
+		    LOG.warn("Could not register the metrics: " + e.getMessage());
+		}
+
+		if (cmd.hasOption("metrics")) {
+		    // like the messages of the main class, even at WARN
+		    Logger.getLogger(Metrics.class).setLevel(Level.INFO);
+		    metrics.startLogging(Long.parseLong(cmd
+			    .getOptionValue("metrics")), TimeUnit.SECONDS);
+		}
+
+		new Main(cmd.getOptionValue("c"), cmd.getOptionValue("t"),
+			threads, seed, cmd.getOptionValue("report"),
+			parseList(cmd.getOptionValue("keys", "6,8,10")),
+			parseList(cmd.getOptionValue("lengths",
+				DEFAULT_REPORT_LENGTHS)),
+			Integer.parseInt(cmd.getOptionValue("trials", "100")));
+
+		if (cmd.hasOption("metrics")) {
+		    metrics.stopLogging();
+		    LOG.info(metrics);
+		}
 	    } else {
 		LOG.error("Please check input.");
 
@@ -144,6 +361,11 @@ public class Main {
 	} catch (final ParseException e) {
 	    LOG.info("Could not parse arguments. Pass -help for help."
 		    + e.getMessage());
+	} catch (final IOException e) {
+	    e.printStackTrace();
+	} finally {
+	    // flush the asynchronous appender
+	    LogManager.shutdown();
 	}
 
     }
@@ -0,0 +1,338 @@
+package adfgvx;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Counts the work of the solver over the whole process. The counters are
+ * striped, so the threads of a search can update them without contention,
+ * and the solvers only update them once per batch of evaluations. The
+ * metrics can be read over JMX under <code>OBJECT_NAME</code>, and can be
+ * logged periodically.
+ * 
+ * Like a logger, every class that reports metrics keeps the shared instance in
+ * a static field.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see LatencyHistogram
+ */
+public class Metrics implements MetricsMXBean {
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(Metrics.class);
+
+    /** Name of the MBean. */
+    public static final String OBJECT_NAME = "adfgvx:type=Metrics";
+
+    /** Metrics of this process. */
+    private static final Metrics INSTANCE = new Metrics();
+
+    /** Number of full fitness evaluations. */
+    private final LongAdder fullEvaluations = new LongAdder();
+    /** Number of tried swaps. */
+    private final LongAdder swapsTried = new LongAdder();
+    /** Number of kept swaps. */
+    private final LongAdder swapsAccepted = new LongAdder();
+    /** Number of restarts. */
+    private final LongAdder restarts = new LongAdder();
+    /** Number of restarts that ended at the best optimum of their search. */
+    private final LongAdder restartsAtBest = new LongAdder();
+    /** Number of decryptions that ran out of budget. */
+    private final LongAdder exhaustedDecryptions = new LongAdder();
+    /** Number of scored arrangements of the transposition. */
+    private final LongAdder arrangementsScored = new LongAdder();
+    /** Number of arrangement searches without an acceptable arrangement. */
+    private final LongAdder unacceptableArrangements = new LongAdder();
+    /** Number of service requests that were rejected by a full queue. */
+    private final LongAdder rejectedRequests = new LongAdder();
+    /** Number of service requests whose deadline passed in the queue. */
+    private final LongAdder expiredRequests = new LongAdder();
+
+    /** Latencies of the decryptions. */
+    private final LatencyHistogram decryptLatency = new LatencyHistogram();
+    /** Latencies of the grouping of columns and rows. */
+    private final LatencyHistogram groupingLatency = new LatencyHistogram();
+    /** Latencies of the arrangement searches. */
+    private final LatencyHistogram arrangementLatency =
+            new LatencyHistogram();
+    /** Latencies of the restart searches. */
+    private final LatencyHistogram solveLatency = new LatencyHistogram();
+
+    /** Executor of the periodic log, or <code>null</code>. */
+    private ScheduledExecutorService logExecutor;
+
+    /**
+     * Gets the metrics of this process.
+     * 
+     * @return Shared metrics
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Counts a full fitness evaluation of a substitution.
+     */
+    public void countFitness() {
+        fullEvaluations.increment();
+    }
+
+    /**
+     * Counts a batch of swaps of a substitution solver.
+     * 
+     * @param tried
+     *            Number of swaps that were tried
+     * @param accepted
+     *            Number of swaps that were kept
+     */
+    public void countSwaps(final int tried, final int accepted) {
+        swapsTried.add(tried);
+        if (accepted > 0) {
+            swapsAccepted.add(accepted);
+        }
+    }
+
+    /**
+     * Records a restart search of a substitution.
+     * 
+     * @param nanos
+     *            Duration in nanoseconds
+     * @param count
+     *            Number of restarts that ran
+     * @param atBest
+     *            Number of restarts that ended at the best optimum
+     */
+    public void recordSolve(final long nanos, final int count,
+            final int atBest) {
+        solveLatency.record(nanos);
+        restarts.add(count);
+        restartsAtBest.add(atBest);
+    }
+
+    /**
+     * Records a decryption.
+     * 
+     * @param nanos
+     *            Duration in nanoseconds
+     * @param exhausted
+     *            True if the decryption ran out of budget
+     */
+    public void recordDecryption(final long nanos, final boolean exhausted) {
+        decryptLatency.record(nanos);
+        if (exhausted) {
+            exhaustedDecryptions.increment();
+        }
+    }
+
+    /**
+     * Records a grouping of the grid columns into columns and rows.
+     * 
+     * @param nanos
+     *            Duration in nanoseconds
+     */
+    public void recordGrouping(final long nanos) {
+        groupingLatency.record(nanos);
+    }
+
+    /**
+     * Records a search of the arrangement of columns and rows.
+     * 
+     * @param nanos
+     *            Duration in nanoseconds
+     * @param scored
+     *            Number of arrangements that were scored
+     * @param acceptable
+     *            True if an arrangement in the acceptable range was found
+     */
+    public void recordArrangement(final long nanos, final long scored,
+            final boolean acceptable) {
+        arrangementLatency.record(nanos);
+        arrangementsScored.add(scored);
+        if (!acceptable) {
+            unacceptableArrangements.increment();
+        }
+    }
+
+    /**
+     * Counts a service request that was rejected because the queue was full.
+     */
+    public void countRejectedRequest() {
+        rejectedRequests.increment();
+    }
+
+    /**
+     * Counts a service request whose deadline passed before it was started.
+     */
+    public void countExpiredRequest() {
+        expiredRequests.increment();
+    }
+
+    @Override
+    public long getFitnessEvaluations() {
+        return fullEvaluations.sum() + swapsTried.sum();
+    }
+
+    @Override
+    public long getSwapsTried() {
+        return swapsTried.sum();
+    }
+
+    @Override
+    public double getSwapAcceptanceRate() {
+        final long tried = swapsTried.sum();
+        return tried == 0 ? 0 : swapsAccepted.sum() / (double) tried;
+    }
+
+    @Override
+    public long getSolves() {
+        return solveLatency.getCount();
+    }
+
+    @Override
+    public long getRestarts() {
+        return restarts.sum();
+    }
+
+    @Override
+    public double getRestartsPerSolve() {
+        final long solves = solveLatency.getCount();
+        return solves == 0 ? 0 : restarts.sum() / (double) solves;
+    }
+
+    @Override
+    public double getRestartsAtBestRate() {
+        final long count = restarts.sum();
+        return count == 0 ? 0 : restartsAtBest.sum() / (double) count;
+    }
+
+    @Override
+    public long getExhaustedDecryptions() {
+        return exhaustedDecryptions.sum();
+    }
+
+    @Override
+    public long getArrangementsScored() {
+        return arrangementsScored.sum();
+    }
+
+    @Override
+    public long getUnacceptableArrangements() {
+        return unacceptableArrangements.sum();
+    }
+
+    @Override
+    public long getRejectedRequests() {
+        return rejectedRequests.sum();
+    }
+
+    @Override
+    public long getExpiredRequests() {
+        return expiredRequests.sum();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getDecryptLatency() {
+        return decryptLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getGroupingLatency() {
+        return groupingLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getArrangementLatency() {
+        return arrangementLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getSolveLatency() {
+        return solveLatency.snapshot();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, unless they are
+     * registered already.
+     * 
+     * @throws JMException
+     *             Error while registering
+     */
+    public void register() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+
+        synchronized (this) {
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        }
+    }
+
+    /**
+     * Logs the metrics periodically from a daemon thread. A previous periodic
+     * log is stopped.
+     * 
+     * @param period
+     *            Time between two logs
+     * @param unit
+     *            Unit of the period
+     */
+    public synchronized void startLogging(final long period,
+            final TimeUnit unit) {
+        stopLogging();
+
+        logExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        final Thread thread = new Thread(runnable,
+                                "metrics-log");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        logExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                LOG.info(Metrics.this);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the periodic log.
+     */
+    public synchronized void stopLogging() {
+        if (logExecutor != null) {
+            logExecutor.shutdownNow();
+            logExecutor = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Fitness evaluations: %d, swap acceptance: "
+                + "%.4f, solves: %d, restarts per solve: %.1f, restarts at "
+                + "best: %.3f, exhausted decryptions: %d, arrangements "
+                + "scored: %d, unacceptable arrangements: %d, rejected "
+                + "requests: %d, expired requests: %d%n"
+                + "Decryptions: %s%nGroupings: %s%nArrangement searches: %s%n"
+                + "Solves: %s", getFitnessEvaluations(),
+                getSwapAcceptanceRate(), getSolves(), getRestartsPerSolve(),
+                getRestartsAtBestRate(), getExhaustedDecryptions(),
+                getArrangementsScored(), getUnacceptableArrangements(),
+                getRejectedRequests(), getExpiredRequests(),
+                decryptLatency, groupingLatency, arrangementLatency,
+                solveLatency);
+    }
+}
@@ -0,0 +1,128 @@
+package adfgvx;
+
+/**
+ * Management interface of the solver metrics. All counts are totals since the
+ * start of the process.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Metrics
+ */
+public interface MetricsMXBean {
+    /**
+     * Gets the number of fitness evaluations of substitutions, both full
+     * scores and swaps.
+     * 
+     * @return Number of evaluations
+     */
+    long getFitnessEvaluations();
+
+    /**
+     * Gets the number of swaps that the substitution solvers tried.
+     * 
+     * @return Number of swaps
+     */
+    long getSwapsTried();
+
+    /**
+     * Gets the fraction of the tried swaps that were kept.
+     * 
+     * @return Acceptance rate between 0 and 1
+     */
+    double getSwapAcceptanceRate();
+
+    /**
+     * Gets the number of restart searches of a substitution.
+     * 
+     * @return Number of searches
+     */
+    long getSolves();
+
+    /**
+     * Gets the number of restarts of the substitution solver.
+     * 
+     * @return Number of restarts
+     */
+    long getRestarts();
+
+    /**
+     * Gets the mean number of restarts per search.
+     * 
+     * @return Restarts per search
+     */
+    double getRestartsPerSolve();
+
+    /**
+     * Gets the fraction of the restarts that ended at the best optimum of
+     * their search. A low rate means the restarts get stuck in local optima.
+     * 
+     * @return Rate between 0 and 1
+     */
+    double getRestartsAtBestRate();
+
+    /**
+     * Gets the number of decryptions that ran out of budget.
+     * 
+     * @return Number of decryptions
+     */
+    long getExhaustedDecryptions();
+
+    /**
+     * Gets the number of arrangements of the transposition that were scored.
+     * 
+     * @return Number of arrangements
+     */
+    long getArrangementsScored();
+
+    /**
+     * Gets the number of arrangement searches that found no arrangement in the
+     * acceptable range, which points to an unusual cipher text.
+     * 
+     * @return Number of searches
+     */
+    long getUnacceptableArrangements();
+
+    /**
+     * Gets the number of service requests that were rejected because the
+     * queue was full.
+     * 
+     * @return Number of requests
+     */
+    long getRejectedRequests();
+
+    /**
+     * Gets the number of service requests whose deadline passed before they
+     * were started.
+     * 
+     * @return Number of requests
+     */
+    long getExpiredRequests();
+
+    /**
+     * Gets the latencies of the decryptions.
+     * 
+     * @return Latency snapshot
+     */
+    LatencyHistogram.Snapshot getDecryptLatency();
+
+    /**
+     * Gets the latencies of the grouping of columns and rows.
+     * 
+     * @return Latency snapshot
+     */
+    LatencyHistogram.Snapshot getGroupingLatency();
+
+    /**
+     * Gets the latencies of the arrangement searches.
+     * 
+     * @return Latency snapshot
+     */
+    LatencyHistogram.Snapshot getArrangementLatency();
+
+    /**
+     * Gets the latencies of the restart searches of a substitution.
+     * 
+     * @return Latency snapshot
+     */
+    LatencyHistogram.Snapshot getSolveLatency();
+}
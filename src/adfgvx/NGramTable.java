@@ -0,0 +1,927 @@
+package adfgvx;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A table of log n-gram frequencies. An n-gram is identified by its code: the
+ * indices of its symbols in the alphabet of the table, read as a base-N number
+ * with the first symbol as the most significant digit. Unknown n-grams have a
+ * log frequency of 0.
+ * 
+ * Tables are stored in a binary format that starts with a header describing
+ * the table, followed by the data. Such files are memory mapped and read in
+ * place, so opening a table does not parse it and several processes share the
+ * same pages. The header consists of (big-endian):
+ * 
+ * <pre>
+ * int    magic ("NGRM")
+ * int    format version
+ * int    n
+ * int    layout (dense or sparse)
+ * int    value type
+ * int    alphabet length
+ * double scale
+ * double offset
+ * int    entry count
+ * char[] alphabet
+ * </pre>
+ * 
+ * The data starts at the next multiple of eight bytes. A dense table contains
+ * a value for every code. A sparse table contains the sorted codes of the
+ * entries, and after aligning to eight bytes, their values. Values are
+ * stored as doubles, or quantized as unsigned 16-bit or 8-bit integers. A
+ * quantized value <code>q</code> represents the log frequency
+ * <code>offset + scale * q</code>, except for 0, which means unknown.
+ * 
+ * @author Ben Ruijl
+ * 
+ */
+public abstract class NGramTable {
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(NGramTable.class);
+
+    /** Magic number at the start of a table file. */
+    public static final int MAGIC = 0x4E47524D;
+    /** Version of the file format. */
+    public static final int VERSION = 1;
+    /** Layout that stores a value for every code. */
+    public static final int LAYOUT_DENSE = 0;
+    /** Layout that stores only the codes that have a value. */
+    public static final int LAYOUT_SPARSE = 1;
+    /** Values are stored as doubles. */
+    public static final int VALUE_DOUBLE = 0;
+    /** Values are quantized to unsigned 16-bit integers. */
+    public static final int VALUE_SHORT = 1;
+    /** Values are quantized to unsigned 8-bit integers. */
+    public static final int VALUE_BYTE = 2;
+
+    /** Size of the fixed part of the header in bytes. */
+    private static final int HEADER_SIZE = 44;
+
+    /** Alphabet of the symbols in the n-grams. */
+    private final String alphabet;
+    /** Number of symbols in an n-gram. */
+    private final int length;
+
+    /**
+     * Creates a new table.
+     * 
+     * @param alphabet
+     *            Alphabet of the symbols in the n-grams
+     * @param length
+     *            Number of symbols in an n-gram
+     */
+    protected NGramTable(final String alphabet, final int length) {
+        this.alphabet = alphabet;
+        this.length = length;
+    }
+
+    /**
+     * Gets the log frequency of an n-gram.
+     * 
+     * @param code
+     *            Code of the n-gram
+     * @return Log frequency, or 0 if the n-gram is unknown
+     */
+    public abstract double getLogFrequency(int code);
+
+    /**
+     * Gets the number of stored entries. For a dense table, this is the number
+     * of codes.
+     * 
+     * @return Number of entries
+     */
+    public abstract int getEntryCount();
+
+    /**
+     * Gets the code of an entry.
+     * 
+     * @param entry
+     *            Index of the entry
+     * @return Code of the n-gram
+     */
+    public abstract int getCode(int entry);
+
+    /**
+     * Gets the log frequency of an entry.
+     * 
+     * @param entry
+     *            Index of the entry
+     * @return Log frequency
+     */
+    public abstract double getValue(int entry);
+
+    /**
+     * Gets the alphabet of the symbols in the n-grams.
+     * 
+     * @return Alphabet
+     */
+    public String getAlphabet() {
+        return alphabet;
+    }
+
+    /**
+     * Gets the number of symbols in an n-gram.
+     * 
+     * @return n
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Calculates the number of possible codes of a table.
+     * 
+     * @param alphabetSize
+     *            Number of symbols in the alphabet
+     * @param length
+     *            Number of symbols in an n-gram
+     * @return Number of codes
+     */
+    public static int getCodeCount(final int alphabetSize, final int length) {
+        long count = 1;
+        for (int i = 0; i < length; i++) {
+            count *= alphabetSize;
+
+            if (count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("An alphabet of "
+                        + alphabetSize + " symbols has too many " + length
+                        + "-grams.");
+            }
+        }
+
+        return (int) count;
+    }
+
+    /**
+     * Creates a dense table on the heap.
+     * 
+     * @param alphabet
+     *            Alphabet of the symbols in the n-grams
+     * @param length
+     *            Number of symbols in an n-gram
+     * @param values
+     *            Log frequency of every code
+     * @return Table
+     */
+    public static NGramTable dense(final String alphabet, final int length,
+            final double[] values) {
+        return new DenseTable(alphabet, length, values);
+    }
+
+    /**
+     * Checks if a file is stored in the table format.
+     * 
+     * @param filename
+     *            Filename
+     * @return True if the file starts with the magic number of the format
+     * @throws IOException
+     *             Read error
+     */
+    public static boolean isTableFile(final String filename)
+            throws IOException {
+        final DataInputStream in = new DataInputStream(new FileInputStream(
+                filename));
+
+        try {
+            return in.available() >= 4 && in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens a table file by mapping it into memory. The data is read in place
+     * and is not copied to the heap, so the file is checked to be large enough
+     * for the data that its header describes.
+     * 
+     * @param filename
+     *            Filename of the table
+     * @return Table
+     * @throws IOException
+     *             Read error, or invalid or truncated file
+     */
+    public static NGramTable open(final String filename) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(filename, "r");
+        final ByteBuffer buffer;
+
+        try {
+            final FileChannel channel = file.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } finally {
+            // the mapping stays valid after closing the file
+            file.close();
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(filename + " is not an n-gram table.");
+        }
+
+        final int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException(filename + " has unsupported version "
+                    + version + ".");
+        }
+
+        final int length = buffer.getInt(8);
+        final int layout = buffer.getInt(12);
+        final int valueType = buffer.getInt(16);
+        final int alphabetLength = buffer.getInt(20);
+        final double scale = buffer.getDouble(24);
+        final double offset = buffer.getDouble(32);
+        final int entryCount = buffer.getInt(40);
+
+        if (alphabetLength < 0 || entryCount < 0) {
+            throw new IOException(filename
+                    + " has a negative alphabet length or entry count.");
+        }
+
+        checkSize(filename, buffer, HEADER_SIZE + 2L * alphabetLength);
+
+        final char[] alphabet = new char[alphabetLength];
+        for (int i = 0; i < alphabetLength; i++) {
+            alphabet[i] = buffer.getChar(HEADER_SIZE + 2 * i);
+        }
+
+        if (valueType < VALUE_DOUBLE || valueType > VALUE_BYTE) {
+            throw new IOException(filename + " has unsupported value type "
+                    + valueType + ".");
+        }
+
+        final long dataOffset = align(HEADER_SIZE + 2L * alphabetLength);
+        final long valueSize = getValueSize(valueType);
+        final Quantizer quantizer = new Quantizer(valueType, scale, offset);
+        final MappedTable table;
+
+        if (layout == LAYOUT_DENSE) {
+            if (entryCount != getCodeCount(alphabetLength, length)) {
+                throw new IOException(filename + " has a wrong entry count.");
+            }
+
+            checkSize(filename, buffer, dataOffset + valueSize * entryCount);
+
+            table = new MappedTable(new String(alphabet), length, null,
+                    entryCount, slice(buffer, dataOffset), quantizer);
+        } else if (layout == LAYOUT_SPARSE) {
+            final long valueOffset = align(dataOffset + 4L * entryCount);
+            checkSize(filename, buffer, valueOffset + valueSize * entryCount);
+
+            final IntBuffer codes = slice(buffer, dataOffset).asIntBuffer();
+            codes.limit(entryCount);
+
+            table = new MappedTable(new String(alphabet), length, codes,
+                    entryCount, slice(buffer, valueOffset), quantizer);
+        } else {
+            throw new IOException(filename + " has unknown layout " + layout
+                    + ".");
+        }
+
+        LOG.info("Mapped " + length + "-gram table " + filename + ".");
+        return table;
+    }
+
+    /**
+     * Writes a table file with double values.
+     * 
+     * @param filename
+     *            Filename of the table
+     * @param alphabet
+     *            Alphabet of the symbols in the n-grams
+     * @param length
+     *            Number of symbols in an n-gram
+     * @param codes
+     *            Sorted codes of the n-grams, or <code>null</code> for a dense
+     *            table
+     * @param values
+     *            Log frequencies of the n-grams in <code>codes</code>, or of
+     *            every code for a dense table
+     * @throws IOException
+     *             Write error
+     */
+    public static void write(final String filename, final String alphabet,
+            final int length, final int[] codes, final double[] values)
+            throws IOException {
+        write(filename, alphabet, length, codes, values, VALUE_DOUBLE);
+    }
+
+    /**
+     * Writes a table file.
+     * 
+     * @param filename
+     *            Filename of the table
+     * @param alphabet
+     *            Alphabet of the symbols in the n-grams
+     * @param length
+     *            Number of symbols in an n-gram
+     * @param codes
+     *            Sorted codes of the n-grams, or <code>null</code> for a dense
+     *            table
+     * @param values
+     *            Log frequencies of the n-grams in <code>codes</code>, or of
+     *            every code for a dense table
+     * @param valueType
+     *            How the values are stored
+     * @throws IOException
+     *             Write error
+     */
+    public static void write(final String filename, final String alphabet,
+            final int length, final int[] codes, final double[] values,
+            final int valueType) throws IOException {
+        final Quantizer quantizer = Quantizer.create(valueType, values);
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(filename)));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(length);
+            out.writeInt(codes == null ? LAYOUT_DENSE : LAYOUT_SPARSE);
+            out.writeInt(valueType);
+            out.writeInt(alphabet.length());
+            out.writeDouble(quantizer.scale);
+            out.writeDouble(quantizer.offset);
+            out.writeInt(values.length);
+            out.writeChars(alphabet);
+            pad(out);
+
+            if (codes != null) {
+                for (final int code : codes) {
+                    out.writeInt(code);
+                }
+                pad(out);
+            }
+
+            for (final double value : values) {
+                switch (valueType) {
+                case VALUE_SHORT:
+                    out.writeShort(quantizer.quantize(value));
+                    break;
+                case VALUE_BYTE:
+                    out.writeByte(quantizer.quantize(value));
+                    break;
+                default:
+                    out.writeDouble(value);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes this table to a file with double values.
+     * 
+     * @param filename
+     *            Filename of the table
+     * @param dense
+     *            True to write the dense layout, false for the sparse layout
+     * @throws IOException
+     *             Write error
+     */
+    public void write(final String filename, final boolean dense)
+            throws IOException {
+        write(filename, dense, VALUE_DOUBLE);
+    }
+
+    /**
+     * Writes this table to a file.
+     * 
+     * @param filename
+     *            Filename of the table
+     * @param dense
+     *            True to write the dense layout, false for the sparse layout
+     * @param valueType
+     *            How the values are stored
+     * @throws IOException
+     *             Write error
+     */
+    public void write(final String filename, final boolean dense,
+            final int valueType) throws IOException {
+        final int codeCount = getCodeCount(alphabet.length(), length);
+
+        int known = 0;
+        for (int i = 0; i < getEntryCount(); i++) {
+            if (getValue(i) != 0) {
+                known++;
+            }
+        }
+
+        if (dense) {
+            final double[] values = new double[codeCount];
+            for (int i = 0; i < getEntryCount(); i++) {
+                values[getCode(i)] = getValue(i);
+            }
+
+            write(filename, alphabet, length, null, values, valueType);
+        } else {
+            final int[] codes = new int[known];
+            final double[] values = new double[known];
+
+            for (int i = 0, j = 0; i < getEntryCount(); i++) {
+                if (getValue(i) != 0) {
+                    codes[j] = getCode(i);
+                    values[j++] = getValue(i);
+                }
+            }
+
+            write(filename, alphabet, length, codes, values, valueType);
+        }
+    }
+
+    /**
+     * Gets the value type that stores values in a number of bits.
+     * 
+     * @param bits
+     *            64, 16 or 8
+     * @return Value type
+     */
+    public static int getValueType(final int bits) {
+        switch (bits) {
+        case 64:
+            return VALUE_DOUBLE;
+        case 16:
+            return VALUE_SHORT;
+        case 8:
+            return VALUE_BYTE;
+        default:
+            throw new IllegalArgumentException("Values are stored in 64, 16 "
+                    + "or 8 bits, not " + bits + ".");
+        }
+    }
+
+    /**
+     * Creates a dense copy of this table on the heap with quantized values.
+     * 
+     * @param valueType
+     *            <code>VALUE_SHORT</code> or <code>VALUE_BYTE</code>
+     * @return Quantized table
+     */
+    public NGramTable quantize(final int valueType) {
+        final double[] values = new double[getCodeCount(alphabet.length(),
+                length)];
+        for (int i = 0; i < getEntryCount(); i++) {
+            values[getCode(i)] = getValue(i);
+        }
+
+        final Quantizer quantizer = Quantizer.create(valueType, values);
+
+        if (valueType == VALUE_SHORT) {
+            final short[] data = new short[values.length];
+            for (int i = 0; i < values.length; i++) {
+                data[i] = (short) quantizer.quantize(values[i]);
+            }
+
+            return new ShortTable(alphabet, length, data, quantizer);
+        } else if (valueType == VALUE_BYTE) {
+            final byte[] data = new byte[values.length];
+            for (int i = 0; i < values.length; i++) {
+                data[i] = (byte) quantizer.quantize(values[i]);
+            }
+
+            return new ByteTable(alphabet, length, data, quantizer);
+        }
+
+        throw new IllegalArgumentException("Value type " + valueType
+                + " is not quantized.");
+    }
+
+    /**
+     * Converts a legacy tetragram file, which stores tetragrams as four
+     * 16-bit characters packed in a long, to a table file. When all symbols
+     * are in <code>plainAlphabet</code>, that is the alphabet of the table and
+     * the table is dense, so that lookups are a single read. Otherwise, the
+     * table is sparse.
+     * 
+     * @param legacyFilename
+     *            Filename of the legacy tetragram file
+     * @param filename
+     *            Filename of the table
+     * @param valueType
+     *            How the values are stored
+     * @throws IOException
+     *             Read or write error
+     */
+    public static void convertLegacy(final String legacyFilename,
+            final String filename, final int valueType) throws IOException {
+        final int length = Tetragram.TETRAGRAM_LENGTH;
+        final TreeMap<Long, Double> entries = new TreeMap<Long, Double>();
+        final DataInputStream in = new DataInputStream(new FileInputStream(
+                legacyFilename));
+
+        try {
+            final int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                final long tetragram = in.readLong();
+                entries.put(tetragram, in.readDouble());
+            }
+        } finally {
+            in.close();
+        }
+
+        final TreeSet<Character> symbols = new TreeSet<Character>();
+        for (final long tetragram : entries.keySet()) {
+            for (int j = 0; j < length; j++) {
+                symbols.add((char) (tetragram >>> (16 * j)));
+            }
+        }
+
+        String alphabet = Encryption.plainAlphabet;
+        boolean dense = true;
+        for (final Character c : symbols) {
+            if (alphabet.indexOf(c) < 0) {
+                final StringBuilder all = new StringBuilder();
+                for (final Character s : symbols) {
+                    all.append(s);
+                }
+
+                alphabet = all.toString();
+                dense = false;
+                break;
+            }
+        }
+
+        final int codeCount = getCodeCount(alphabet.length(), length);
+        final double[] values = new double[codeCount];
+        for (final Long tetragram : entries.keySet()) {
+            int code = 0;
+            for (int j = length - 1; j >= 0; j--) {
+                code = code * alphabet.length()
+                        + alphabet.indexOf((char) (tetragram >>> (16 * j)));
+            }
+
+            values[code] = entries.get(tetragram);
+        }
+
+        new DenseTable(alphabet, length, values).write(filename, dense,
+                valueType);
+        LOG.info("Converted " + entries.size() + " tetragrams to " + filename
+                + ".");
+    }
+
+    /**
+     * Rounds a position in the file up to the next multiple of eight.
+     * 
+     * @param position
+     *            Position in bytes
+     * @return Aligned position
+     */
+    private static long align(final long position) {
+        return (position + 7) & ~7L;
+    }
+
+    /**
+     * Gets the number of bytes in which a value is stored.
+     * 
+     * @param valueType
+     *            How the values are stored
+     * @return Size of a value in bytes
+     */
+    private static int getValueSize(final int valueType) {
+        switch (valueType) {
+        case VALUE_SHORT:
+            return 2;
+        case VALUE_BYTE:
+            return 1;
+        default:
+            return 8;
+        }
+    }
+
+    /**
+     * Checks that a mapped file is large enough for its data.
+     * 
+     * @param filename
+     *            Filename of the table
+     * @param buffer
+     *            Mapped file
+     * @param size
+     *            Number of bytes the header describes
+     * @throws IOException
+     *             The file is smaller
+     */
+    private static void checkSize(final String filename,
+            final ByteBuffer buffer, final long size) throws IOException {
+        if (buffer.capacity() < size) {
+            throw new IOException(filename + " is truncated: it has "
+                    + buffer.capacity() + " bytes instead of " + size + ".");
+        }
+    }
+
+    /**
+     * Writes zeros until the output is aligned to eight bytes.
+     * 
+     * @param out
+     *            Output stream
+     * @throws IOException
+     *             Write error
+     */
+    private static void pad(final DataOutputStream out) throws IOException {
+        while (out.size() % 8 != 0) {
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Creates a view of a buffer starting at a position.
+     * 
+     * @param buffer
+     *            Buffer
+     * @param position
+     *            Start of the view
+     * @return View
+     */
+    private static ByteBuffer slice(final ByteBuffer buffer,
+            final long position) {
+        final ByteBuffer view = buffer.duplicate();
+        // the position was checked against the capacity of the buffer
+        view.position((int) position);
+        return view.slice();
+    }
+
+    /**
+     * A dense table on the heap.
+     */
+    private static class DenseTable extends NGramTable {
+        /** Log frequency of every code. */
+        private final double[] values;
+
+        public DenseTable(final String alphabet, final int length,
+                final double[] values) {
+            super(alphabet, length);
+            this.values = values;
+        }
+
+        @Override
+        public double getLogFrequency(final int code) {
+            return values[code];
+        }
+
+        @Override
+        public int getEntryCount() {
+            return values.length;
+        }
+
+        @Override
+        public int getCode(final int entry) {
+            return entry;
+        }
+
+        @Override
+        public double getValue(final int entry) {
+            return values[entry];
+        }
+    }
+
+    /**
+     * A dense table on the heap with 16-bit quantized values.
+     */
+    private static class ShortTable extends NGramTable {
+        /** Quantized value of every code. */
+        private final short[] values;
+        /** Conversion of quantized values. */
+        private final Quantizer quantizer;
+
+        public ShortTable(final String alphabet, final int length,
+                final short[] values, final Quantizer quantizer) {
+            super(alphabet, length);
+            this.values = values;
+            this.quantizer = quantizer;
+        }
+
+        @Override
+        public double getLogFrequency(final int code) {
+            return quantizer.restore(values[code] & 0xFFFF);
+        }
+
+        @Override
+        public int getEntryCount() {
+            return values.length;
+        }
+
+        @Override
+        public int getCode(final int entry) {
+            return entry;
+        }
+
+        @Override
+        public double getValue(final int entry) {
+            return getLogFrequency(entry);
+        }
+    }
+
+    /**
+     * A dense table on the heap with 8-bit quantized values.
+     */
+    private static class ByteTable extends NGramTable {
+        /** Quantized value of every code. */
+        private final byte[] values;
+        /** Conversion of quantized values. */
+        private final Quantizer quantizer;
+
+        public ByteTable(final String alphabet, final int length,
+                final byte[] values, final Quantizer quantizer) {
+            super(alphabet, length);
+            this.values = values;
+            this.quantizer = quantizer;
+        }
+
+        @Override
+        public double getLogFrequency(final int code) {
+            return quantizer.restore(values[code] & 0xFF);
+        }
+
+        @Override
+        public int getEntryCount() {
+            return values.length;
+        }
+
+        @Override
+        public int getCode(final int entry) {
+            return entry;
+        }
+
+        @Override
+        public double getValue(final int entry) {
+            return getLogFrequency(entry);
+        }
+    }
+
+    /**
+     * A dense or sparse table that is read in place from a mapped file.
+     */
+    private static class MappedTable extends NGramTable {
+        /** Sorted codes of a sparse table, <code>null</code> if dense. */
+        private final IntBuffer codes;
+        /** Number of entries. */
+        private final int entryCount;
+        /** Values of the entries. */
+        private final ByteBuffer values;
+        /** How the values are stored. */
+        private final Quantizer quantizer;
+
+        public MappedTable(final String alphabet, final int length,
+                final IntBuffer codes, final int entryCount,
+                final ByteBuffer values, final Quantizer quantizer) {
+            super(alphabet, length);
+            this.codes = codes;
+            this.entryCount = entryCount;
+            this.values = values;
+            this.quantizer = quantizer;
+        }
+
+        @Override
+        public double getLogFrequency(final int code) {
+            if (codes == null) {
+                return getValue(code);
+            }
+
+            final int entry = search(code);
+            return entry < 0 ? 0.0 : getValue(entry);
+        }
+
+        /**
+         * Finds the entry of a code in a sparse table.
+         * 
+         * @param code
+         *            Code of the n-gram
+         * @return Index of the entry, or -1 if there is none
+         */
+        private int search(final int code) {
+            int low = 0;
+            int high = entryCount - 1;
+
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int midCode = codes.get(mid);
+
+                if (midCode < code) {
+                    low = mid + 1;
+                } else if (midCode > code) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+
+            return -1;
+        }
+
+        @Override
+        public int getEntryCount() {
+            return entryCount;
+        }
+
+        @Override
+        public int getCode(final int entry) {
+            return codes == null ? entry : codes.get(entry);
+        }
+
+        @Override
+        public double getValue(final int entry) {
+            switch (quantizer.valueType) {
+            case VALUE_SHORT:
+                return quantizer.restore(values.getShort(2 * entry) & 0xFFFF);
+            case VALUE_BYTE:
+                return quantizer.restore(values.get(entry) & 0xFF);
+            default:
+                return values.getDouble(8 * entry);
+            }
+        }
+    }
+
+    /**
+     * Converts log frequencies to quantized values and back. The quantized
+     * values are spread evenly between the smallest and the largest known log
+     * frequency.
+     */
+    private static class Quantizer {
+        /** How the values are stored. */
+        private final int valueType;
+        /** Log frequency step per quantized value. */
+        private final double scale;
+        /** Log frequency of quantized value 0. */
+        private final double offset;
+
+        public Quantizer(final int valueType, final double scale,
+                final double offset) {
+            this.valueType = valueType;
+            this.scale = scale;
+            this.offset = offset;
+        }
+
+        /**
+         * Creates a quantizer for a set of values.
+         * 
+         * @param valueType
+         *            How the values are stored
+         * @param values
+         *            Log frequencies, where 0 means unknown
+         * @return Quantizer
+         */
+        public static Quantizer create(final int valueType,
+                final double[] values) {
+            if (valueType == VALUE_DOUBLE) {
+                return new Quantizer(valueType, 1.0, 0.0);
+            }
+
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (final double value : values) {
+                if (value != 0) {
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+
+            if (min > max) {
+                return new Quantizer(valueType, 1.0, 0.0);
+            }
+
+            final int levels = valueType == VALUE_SHORT ? 0xFFFF : 0xFF;
+            final double scale = max > min ? (max - min) / (levels - 1) : 1.0;
+            return new Quantizer(valueType, scale, min - scale);
+        }
+
+        /**
+         * Quantizes a log frequency.
+         * 
+         * @param value
+         *            Log frequency, or 0 if unknown
+         * @return Quantized value, which is 0 for unknown n-grams
+         */
+        public int quantize(final double value) {
+            if (value == 0) {
+                return 0;
+            }
+
+            final int levels = valueType == VALUE_SHORT ? 0xFFFF : 0xFF;
+            final long q = Math.round((value - offset) / scale);
+            return (int) Math.max(1, Math.min(levels, q));
+        }
+
+        /**
+         * Restores the log frequency of a quantized value.
+         * 
+         * @param q
+         *            Quantized value
+         * @return Log frequency, or 0 if unknown
+         */
+        public double restore(final int q) {
+            return q == 0 ? 0.0 : offset + scale * q;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package adfgvx;
+
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TIntIntIterator;
+import gnu.trove.TIntLongHashMap;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Builds a table of log n-gram frequencies from a reference text. The text is
+ * streamed in chunks, so it can be of any size. Chunks are counted in parallel
+ * by workers that each have their own primitive count table, and the tables
+ * are merged at the end.
+ * 
+ * Letters are converted to upper case and all symbols that are not in the
+ * alphabet are skipped, so n-grams span across words.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see NGramTable
+ */
+public class NGramTableBuilder {
+    /** Logger. */
+    private static final Logger LOG = Logger
+            .getLogger(NGramTableBuilder.class);
+
+    /** Smallest supported n. */
+    public static final int MIN_LENGTH = 2;
+    /** Largest supported n. */
+    public static final int MAX_LENGTH = 5;
+    /** Largest number of codes that is counted in a dense array. */
+    private static final int MAX_DENSE_CODES = 1 << 22;
+    /** Number of characters in a chunk. */
+    private static final int CHUNK_SIZE = 1 << 20;
+    /** Chunk that tells a worker to stop. */
+    private static final byte[] END = new byte[0];
+    /** Time in milliseconds the reader waits for room in the queue. */
+    private static final long OFFER_TIMEOUT = 100;
+
+    /** Alphabet of the symbols in the n-grams. */
+    private final String alphabet;
+    /** Number of symbols in an n-gram. */
+    private final int length;
+    /** Number of workers. */
+    private final int threads;
+    /** Maps a character to its index in the alphabet, or -1. */
+    private final byte[] symbolIndex = new byte[Character.MAX_VALUE + 1];
+    /** Number of possible codes. */
+    private final int codeCount;
+
+    /**
+     * Creates a new builder.
+     * 
+     * @param alphabet
+     *            Alphabet of the symbols in the n-grams
+     * @param length
+     *            Number of symbols in an n-gram, from 2 to 5
+     * @param threads
+     *            Number of workers
+     */
+    public NGramTableBuilder(final String alphabet, final int length,
+            final int threads) {
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("n should be between "
+                    + MIN_LENGTH + " and " + MAX_LENGTH + ".");
+        }
+
+        this.alphabet = alphabet;
+        this.length = length;
+        this.threads = Math.max(1, threads);
+        codeCount = NGramTable.getCodeCount(alphabet.length(), length);
+
+        Arrays.fill(symbolIndex, (byte) -1);
+        for (int i = 0; i < alphabet.length(); i++) {
+            symbolIndex[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    /**
+     * Builds a table from a text file and writes it.
+     * 
+     * @param corpus
+     *            Filename of the reference text
+     * @param filename
+     *            Filename of the table
+     * @throws IOException
+     *             Read or write error
+     */
+    public void build(final String corpus, final String filename)
+            throws IOException {
+        final Reader reader = new InputStreamReader(new FileInputStream(
+                corpus), "UTF-8");
+
+        try {
+            build(reader, filename);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Builds a table from a text and writes it. The n-grams that do not appear
+     * in the text get a log frequency of 0, which means unknown. Small tables
+     * are written in the dense layout and large ones in the sparse layout.
+     * 
+     * @param corpus
+     *            Reference text
+     * @param filename
+     *            Filename of the table
+     * @throws IOException
+     *             Read or write error
+     */
+    public void build(final Reader corpus, final String filename)
+            throws IOException {
+        final List<Counts> counts = count(corpus);
+
+        long total = 0;
+        for (final Counts c : counts) {
+            total += c.total;
+        }
+
+        if (total == 0) {
+            throw new IOException("The text contains no " + length
+                    + "-grams.");
+        }
+
+        final double logTotal = Math.log(total);
+
+        if (codeCount <= MAX_DENSE_CODES) {
+            final long[] merged = new long[codeCount];
+            for (final Counts c : counts) {
+                for (int i = 0; i < codeCount; i++) {
+                    merged[i] += c.dense[i];
+                }
+            }
+
+            final double[] values = new double[codeCount];
+            for (int i = 0; i < codeCount; i++) {
+                if (merged[i] > 0) {
+                    values[i] = Math.log(merged[i]) - logTotal;
+                }
+            }
+
+            NGramTable.write(filename, alphabet, length, null, values);
+        } else {
+            final TIntLongHashMap merged = new TIntLongHashMap();
+            for (final Counts c : counts) {
+                for (final TIntIntIterator it = c.sparse.iterator(); it
+                        .hasNext();) {
+                    it.advance();
+                    merged.adjustOrPutValue(it.key(), it.value(), it.value());
+                }
+            }
+
+            final int[] codes = merged.keys();
+            Arrays.sort(codes);
+
+            final double[] values = new double[codes.length];
+            for (int i = 0; i < codes.length; i++) {
+                values[i] = Math.log(merged.get(codes[i])) - logTotal;
+            }
+
+            NGramTable.write(filename, alphabet, length, codes, values);
+        }
+
+        LOG.info("Wrote table of " + total + " " + length + "-grams to "
+                + filename + ".");
+    }
+
+    /**
+     * Counts the n-grams of a text in parallel. The reader thread splits the
+     * text into chunks of symbol indices, which the workers take from a
+     * bounded queue. If a worker fails, the reader stops and the failure is
+     * thrown.
+     * 
+     * @param corpus
+     *            Reference text
+     * @return Counts of every worker
+     * @throws IOException
+     *             Read error, or a worker failed
+     */
+    private List<Counts> count(final Reader corpus) throws IOException {
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(
+                2 * threads);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<Counts>> results = new ArrayList<Future<Counts>>();
+
+        for (int i = 0; i < threads; i++) {
+            results.add(executor.submit(new Worker(queue)));
+        }
+
+        try {
+            final char[] buffer = new char[CHUNK_SIZE];
+            // the last n - 1 symbols of a chunk start the next one
+            final byte[] overlap = new byte[length - 1];
+            int overlapSize = 0;
+
+            int read;
+            while ((read = corpus.read(buffer)) >= 0) {
+                final byte[] chunk = new byte[overlapSize + read];
+                System.arraycopy(overlap, 0, chunk, 0, overlapSize);
+
+                int size = overlapSize;
+                for (int i = 0; i < read; i++) {
+                    final byte symbol = symbolIndex[Character
+                            .toUpperCase(buffer[i])];
+                    if (symbol >= 0) {
+                        chunk[size++] = symbol;
+                    }
+                }
+
+                overlapSize = Math.min(length - 1, size);
+                System.arraycopy(chunk, size - overlapSize, overlap, 0,
+                        overlapSize);
+
+                if (size >= length) {
+                    put(queue, Arrays.copyOf(chunk, size), results);
+                }
+            }
+
+            for (int i = 0; i < threads; i++) {
+                put(queue, END, results);
+            }
+
+            final List<Counts> counts = new ArrayList<Counts>();
+            for (final Future<Counts> result : results) {
+                counts.add(result.get());
+            }
+
+            return counts;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting.");
+        } catch (final ExecutionException e) {
+            throw new IOException("Counting failed: " + e.getCause(),
+                    e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Puts a chunk in the queue. A worker only stops before it takes its
+     * <code>END</code> chunk when it fails, so while the queue is full the
+     * finished workers are checked, and the chunk is dropped if one of them
+     * failed.
+     * 
+     * @param queue
+     *            Queue of chunks
+     * @param chunk
+     *            Chunk to put
+     * @param results
+     *            Results of the workers
+     * @throws InterruptedException
+     *             Interrupted while waiting
+     * @throws ExecutionException
+     *             A worker failed
+     */
+    private static void put(final BlockingQueue<byte[]> queue,
+            final byte[] chunk, final List<Future<Counts>> results)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(chunk, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            for (final Future<Counts> result : results) {
+                if (result.isDone()) {
+                    result.get();
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts of the n-grams seen by a single worker. Small alphabets are
+     * counted in a dense array, others in a hash table.
+     */
+    private class Counts {
+        /** Count of every code, <code>null</code> if sparse. */
+        private int[] dense;
+        /** Counts of the codes that appear, <code>null</code> if dense. */
+        private TIntIntHashMap sparse;
+        /** Number of counted n-grams. */
+        private long total;
+
+        public Counts() {
+            if (codeCount <= MAX_DENSE_CODES) {
+                dense = new int[codeCount];
+            } else {
+                sparse = new TIntIntHashMap();
+            }
+        }
+
+        /**
+         * Counts the n-grams in a chunk.
+         * 
+         * @param chunk
+         *            Symbol indices
+         */
+        public void count(final byte[] chunk) {
+            final int base = alphabet.length();
+            int code = 0;
+
+            for (int i = 0; i < chunk.length; i++) {
+                // drop the first symbol of the previous n-gram
+                code = (code % (codeCount / base)) * base + chunk[i];
+
+                if (i >= length - 1) {
+                    if (dense != null) {
+                        dense[code]++;
+                    } else {
+                        sparse.adjustOrPutValue(code, 1, 1);
+                    }
+                }
+            }
+
+            total += chunk.length - length + 1;
+        }
+    }
+
+    /**
+     * A worker that counts the chunks it takes from a queue.
+     */
+    private class Worker implements Callable<Counts> {
+        /** Queue of chunks. */
+        private final BlockingQueue<byte[]> queue;
+
+        public Worker(final BlockingQueue<byte[]> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public Counts call() throws InterruptedException {
+            final Counts counts = new Counts();
+
+            byte[] chunk;
+            while ((chunk = queue.take()) != END) {
+                counts.count(chunk);
+            }
+
+            return counts;
+        }
+    }
+}
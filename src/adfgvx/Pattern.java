@@ -1,21 +1,11 @@
 package adfgvx;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.log4j.Logger;
-
-import utils.Utils;
+import utils.Permutations;
 
 /**
  * This class provides functions to find the optimal arrangement of columns in
@@ -23,139 +13,298 @@ import utils.Utils;
  * transposition. Before using these functions, the columns that map to
  * columns/rows in the Polybius square have to be identified,
  * 
- * To find the optimal arrangement, hillclimbing is performed. The fitness
- * function is a comparison of log pattern tetragram frequencies of the cipher
- * text to that of a large reference text.
+ * To find the optimal arrangement, the index of coincidence of the text is
+ * maximized, exhaustively or by hillclimbing. The index does not depend on the
+ * order of the slots, so the order is chosen by the digraphic index of
+ * coincidence.
+ * 
+ * An instance has no state, so it can be shared by several analyzers. The
+ * exhaustive search is passed per call, so that every analyzer runs it on its
+ * own executor.
  * 
  * 
  * @author Ben Ruijl
  * 
  */
 public class Pattern {
-    /** Logger. */
-    private static final Logger LOG = Logger.getLogger(Pattern.class);
-
-    /** Pattern table of a large reference text. */
-    private final Map<IntArrayWrapper, Double> patternFreq;
+    /** Metrics. */
+    private static final Metrics METRICS = Metrics.getInstance();
 
+    /** Largest group of columns that is arranged exhaustively. */
+    public static final int MAX_EXHAUSTIVE_GROUP = 6;
+    /** Default number of fitness evaluations of the hill-climber. */
+    public static final int DEFAULT_SEARCH_EVALUATIONS = 20000;
     /**
-     * Reads a pattern table from a reference file.
-     * 
-     * @param filename
-     *            Filename of the reference table
-     * @throws IOException
-     *             Exception when problems occur with reading the reference file
+     * Lowest index of coincidence of a correct arrangement. The index is
+     * normalized by the 36 symbols of the plain alphabet, so English text is
+     * at about 2.5 and random text at 1.
      */
-    public Pattern(final String filename) throws IOException {
-	patternFreq = new HashMap<IntArrayWrapper, Double>();
-	readPatterntetragrams(filename);
-    }
+    public static final float MIN_COINCIDENCE = 1.8f;
+    /** Number of symbols in the plain alphabet. */
+    private static final int SYMBOLS = 36;
+    /** Number of kinds of moves of the order of the slots. */
+    private static final int SLOT_MOVES = 4;
+    /** Number of climbs of the order of the slots. */
+    private static final int SLOT_RESTARTS = 20;
+
+    /** Exhaustive search of the arrangements in the calling thread. */
+    private static final ArrangementSearch SEQUENTIAL = new ArrangementSearch();
 
     /**
-     * Calculates the frequency table of tetragrams in a given text.
+     * Calculates the digraphic index of coincidence of the text that an
+     * arrangement of rows and columns defractions to. Permuting the slots does
+     * not change the index of coincidence of the text, but it does change
+     * which symbols are adjacent, and only the correct order gives the
+     * frequent digraphs of the plain text. Like the index of coincidence, the
+     * digraphic index does not change under the monoalphabetic substitution.
      * 
-     * @param text
-     *            Text to scan
-     * @return Map with frequencies
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param colOrder
+     *            Column index in every slot
+     * @param rowOrder
+     *            Row index in every slot
+     * @return Digraphic index of coincidence, higher is better
      */
-    private Map<IntArrayWrapper, Double> calcPatternFrequencies(
-	    final String text) {
-	final Map<IntArrayWrapper, Double> patternFreq = new HashMap<IntArrayWrapper, Double>();
-
-	for (int i = 0; i < text.length() - 4; i++) {
-	    final int[] initData = { 0, 1, 2, 3 };
-	    final IntArrayWrapper pat = new IntArrayWrapper(initData);
-
-	    int highest = 0;
-	    for (int j = 0; j < 4; j++) {
-		boolean found = false;
-
-		for (int k = 0; k < j; k++) {
-		    if (text.charAt(i + j) == text.charAt(i + k)) {
-			pat.getData()[j] = k;
-			found = true;
-			break;
-		    }
-		}
+    public static float digraphFitness(final List<Column> col,
+	    final List<Column> row, final int[] colOrder,
+	    final int[] rowOrder) {
+	final int slots = Math.min(col.size(), row.size());
+	final int[] lengths = new int[slots];
+	int rows = 0;
+	for (int i = 0; i < slots; i++) {
+	    lengths[i] = Math.min(col.get(colOrder[i]).size(), row.get(
+		    rowOrder[i]).size());
+	    rows = Math.max(rows, lengths[i]);
+	}
 
-		if (!found) {
-		    highest++;
-		    pat.getData()[j] = highest;
+	// the text is read row by row, ragged rows skip the short pairs
+	final int[] counts = new int[SYMBOLS * SYMBOLS];
+	int previous = -1;
+	int digraphs = 0;
+	for (int j = 0; j < rows; j++) {
+	    for (int i = 0; i < slots; i++) {
+		if (j < lengths[i]) {
+		    final int symbol = row.get(rowOrder[i]).get(j) * 6
+			    + col.get(colOrder[i]).get(j);
+		    if (previous >= 0) {
+			counts[previous * SYMBOLS + symbol]++;
+			digraphs++;
+		    }
+		    previous = symbol;
 		}
 	    }
+	}
 
-	    Double num = patternFreq.get(pat);
-
-	    if (num == null) {
-		num = 0.0;
-	    }
-
-	    patternFreq.put(pat, num + 1.0f / (text.length() - 3));
+	long coincidences = 0;
+	for (final int count : counts) {
+	    coincidences += count * (count - 1);
 	}
 
-	return patternFreq;
+	return digraphs < 2 ? 0 : (float) coincidences * counts.length
+		/ ((long) digraphs * (digraphs - 1));
+    }
+
+    /**
+     * Tries to find the optimal arrangement of columns and rows, with the
+     * default budget of the search.
+     * 
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     */
+    public void findOptimalPatternDistribution(final List<Column> col,
+	    final List<Column> row) {
+	findOptimalPatternDistribution(col, row, new Budget(0,
+		TimeUnit.NANOSECONDS, DEFAULT_SEARCH_EVALUATIONS), new Random());
     }
 
     /**
-     * Calculates the fitness of this combination of rows and columns by
-     * reconstructing the text and comparing the pattern tetragram frequencies
-     * to those of a large reference text.
+     * Tries to find the optimal arrangement of columns and rows. The pairing
+     * of columns and rows with the highest index of coincidence is chosen,
+     * and its slots are put in the order with the highest digraphic index of
+     * coincidence. If both groups have at most
+     * <code>MAX_EXHAUSTIVE_GROUP</code> columns, every arrangement is tried
+     * until the deadline of the budget. Otherwise, the arrangements are
+     * searched by hill-climbing with random restarts until the budget is
+     * exhausted.
      * 
      * @param col
      *            List of transposition grid columns that map to columns in the
      *            Polybius square
      * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param budget
+     *            Budget of fitness evaluations and time of the search
+     * @param random
+     *            Random number generator of the search
+     */
+    public void findOptimalPatternDistribution(final List<Column> col,
+	    final List<Column> row, final Budget budget,
+	    final Random random) {
+	findOptimalPatternDistribution(col, row, budget, random, SEQUENTIAL);
+    }
+
+    /**
+     * Tries to find the optimal arrangement of columns and rows, like
+     * <code>findOptimalPatternDistribution(col, row, budget, random)</code>,
+     * but runs the exhaustive search on the given search.
+     * 
+     * @param col
      *            List of transposition grid columns that map to columns in the
      *            Polybius square
-     * @return Fitness of this arrangement
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param budget
+     *            Budget of fitness evaluations and time of the search
+     * @param random
+     *            Random number generator of the search
+     * @param search
+     *            Exhaustive search of the arrangements, for example one that
+     *            runs on the executor of the caller
      */
-    private float patternFitness(final List<List<Character>> col,
-	    final List<List<Character>> row) {
-	return Analysis.indexOfCoincidence(PolybiusSquare.unFraction(row, col));
+    public void findOptimalPatternDistribution(final List<Column> col,
+	    final List<Column> row, final Budget budget,
+	    final Random random, final ArrangementSearch search) {
+	final long start = System.nanoTime();
+	final long scored;
+	final boolean acceptable;
+
+	if (col.size() <= MAX_EXHAUSTIVE_GROUP
+		&& row.size() <= MAX_EXHAUSTIVE_GROUP) {
+	    // the evaluation limit is for the hill-climber
+	    final Budget limited = budget.limit(0);
+	    acceptable = findExhaustive(col, row, limited, search);
+	    scored = limited.getEvaluations();
+	} else {
+	    final long evaluations = budget.getEvaluations();
+	    acceptable = findHillClimbing(col, row, budget, random);
+	    scored = budget.getEvaluations() - evaluations;
+	}
 
-	/*
-	 * final Map<IntArrayWrapper, Double> patFreq =
-	 * calcPatternFrequencies(PolybiusSquare .unFraction(row, col));
-	 * 
-	 * return patternDissimilarity(patternFreq, patFreq);
-	 */
+	METRICS.recordArrangement(System.nanoTime() - start, scored,
+		acceptable);
+    }
 
+    /**
+     * Checks if a fitness is in the range of a correct arrangement. There is
+     * no upper bound, since the correct arrangement has the highest index of
+     * coincidence.
+     * 
+     * @param score
+     *            Fitness of an arrangement
+     * @return True if the arrangement can be correct
+     */
+    static boolean isAcceptable(final float score) {
+	return score > MIN_COINCIDENCE;
     }
 
     /**
-     * Calculates how dissimilar two patterns are. A lower value means a
-     * <b>higher</b> similarity.
+     * Tries every pairing of columns and rows, and keeps the best acceptable
+     * one. The index of coincidence does not change when the slots are
+     * permuted, so the slots of that pairing are then put in the order with
+     * the best digraphic index of coincidence, by trying every order.
      * 
-     * @param freqA
-     *            Frequency table of first text
-     * @param freqB
-     *            Frequency table of second text
-     * @return Dissimilarity between two patterns expressed as an integer
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param budget
+     *            Budget of time of the search
+     * @param search
+     *            Exhaustive search of the pairings
+     * @return True if an acceptable arrangement was found
      */
-    private float patternDissimilarity(
-	    final Map<IntArrayWrapper, Double> freqA,
-	    final Map<IntArrayWrapper, Double> freqB) {
-	float score = 0;
+    private boolean findExhaustive(final List<Column> col,
+	    final List<Column> row, final Budget budget,
+	    final ArrangementSearch search) {
+	final List<ArrangementSearch.Candidate> best = findBestArrangements(
+		col, row, 1, budget, search);
+
+	if (best.isEmpty()) {
+	    return false;
+	}
 
-	for (final IntArrayWrapper key : freqB.keySet()) {
-	    Double first = freqA.get(key);
-	    final Double second = freqB.get(key);
+	final int[] bestCol = best.get(0).getColumnOrder().clone();
+	final int[] bestRow = best.get(0).getRowOrder().clone();
+	findSlotOrder(col, row, bestCol, bestRow, budget);
+	arrange(col, bestCol);
+	arrange(row, bestRow);
+	return true;
+    }
+
+    /**
+     * Tries every order of the slots of a pairing, and keeps the one with the
+     * best digraphic index of coincidence. Ties keep the earliest order in
+     * lexicographic order.
+     * 
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param colOrder
+     *            Column index in every slot, changed in place
+     * @param rowOrder
+     *            Row index in every slot, changed in place
+     * @param budget
+     *            Budget of the search, charged once per order
+     */
+    private static void findSlotOrder(final List<Column> col,
+	    final List<Column> row, final int[] colOrder,
+	    final int[] rowOrder, final Budget budget) {
+	final int slots = Math.min(col.size(), row.size());
+	final int[] aCol = colOrder.clone();
+	final int[] aRow = rowOrder.clone();
+	final int[] bestOrder = new int[slots];
+	shuffle(bestOrder, null);
+	float bestScore = -1;
+
+	final Permutations perm = new Permutations(slots);
+	while (perm.next()) {
+	    final int[] order = perm.get();
+	    for (int i = 0; i < slots; i++) {
+		aCol[i] = colOrder[order[i]];
+		aRow[i] = rowOrder[order[i]];
+	    }
 
-	    if (first == null) {
-		first = 0.0;
+	    final float score = digraphFitness(col, row, aCol, aRow);
+	    if (score > bestScore) {
+		bestScore = score;
+		System.arraycopy(order, 0, bestOrder, 0, slots);
 	    }
 
-	    score += (first - second) * (first - second);
+	    if (!budget.charge(1)) {
+		break;
+	    }
+	}
 
+	for (int i = 0; i < slots; i++) {
+	    aCol[i] = colOrder[bestOrder[i]];
+	    aRow[i] = rowOrder[bestOrder[i]];
 	}
 
-	return score;
+	System.arraycopy(aCol, 0, colOrder, 0, slots);
+	System.arraycopy(aRow, 0, rowOrder, 0, slots);
     }
 
     /**
-     * Tries to find the optimal arrangement of columns and rows so that the
-     * pattern frequencies of the resulting text are as close to the reference
-     * text as possible.
+     * Tries every pairing of columns and rows, and reports the best
+     * acceptable ones. The order of the smaller group is kept, and every
+     * candidate pairs it differently. The columns and rows are not
+     * rearranged.
      * 
      * @param col
      *            List of transposition grid columns that map to columns in the
@@ -163,102 +312,303 @@ public class Pattern {
      * @param row
      *            List of transposition grid columns that map to rows in the
      *            Polybius square
+     * @param count
+     *            Largest number of candidates to report
+     * @return Best candidates, the best first
      */
-    public void findOptimalPatternDistribution(final List<List<Character>> col,
-	    final List<List<Character>> row) {
-	List<List<List<Character>>> permCol = new ArrayList<List<List<Character>>>();
-	Utils.permutate(col, col.size(), permCol);
-	List<List<List<Character>>> permRow = new ArrayList<List<List<Character>>>();
-	Utils.permutate(row, row.size(), permRow);
+    public List<ArrangementSearch.Candidate> findBestArrangements(
+	    final List<Column> col, final List<Column> row,
+	    final int count) {
+	return findBestArrangements(col, row, count, Budget.unlimited(),
+		SEQUENTIAL);
+    }
 
-	float bestScore = 0;
-	List<List<Character>> bestCol = col;
-	List<List<Character>> bestRow = row;
+    /**
+     * Tries every pairing of columns and rows until the budget is exhausted,
+     * and reports the best acceptable ones that were scored. The search may
+     * split the pairings over the threads of its executor.
+     * 
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param count
+     *            Largest number of candidates to report
+     * @param budget
+     *            Budget of evaluations and time
+     * @param search
+     *            Exhaustive search of the pairings
+     * @return Best candidates, the best first
+     */
+    public List<ArrangementSearch.Candidate> findBestArrangements(
+	    final List<Column> col, final List<Column> row,
+	    final int count, final Budget budget,
+	    final ArrangementSearch search) {
+	return search.search(col, row, count, budget);
+    }
 
-	for (List<List<Character>> aCol : permCol) {
-	    for (List<List<Character>> aRow : permRow) {
-		float score = patternFitness(aCol, aRow);
+    /**
+     * Searches the arrangements of columns and rows by hill-climbing. A move
+     * swaps two columns or two rows, and the index of coincidence is
+     * maximized.
+     * 
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param budget
+     *            Budget of fitness evaluations and time
+     * @param random
+     *            Random number generator
+     * @return True if an acceptable arrangement was found
+     */
+    private boolean findHillClimbing(final List<Column> col,
+	    final List<Column> row, final Budget budget,
+	    final Random random) {
+	final CoincidenceEvaluator evaluator = new CoincidenceEvaluator(col, row);
+	final int[] aCol = new int[col.size()];
+	final int[] aRow = new int[row.size()];
 
-		if (score > bestScore && score > 1.5f && score < 1.95f) {
-		    bestScore = score;
-		    bestCol = aCol;
-		    bestRow = aRow;
+	float bestScore = 0;
+	int[] bestCol = null;
+	int[] bestRow = null;
+
+	search: while (!budget.isExhausted()) {
+	    shuffle(aCol, random);
+	    shuffle(aRow, random);
+	    float score = evaluator.setOrder(aCol, aRow);
+
+	    boolean goAgain = true;
+	    while (goAgain) {
+		goAgain = false;
+
+		for (int group = 0; group < 2; group++) {
+		    final int size = group == 0 ? col.size() : row.size();
+
+		    for (int i = 0; i < size - 1; i++) {
+			for (int j = i + 1; j < size; j++) {
+			    final float newScore = group == 0 ? evaluator
+				    .swapColumns(i, j) : evaluator.swapRows(i, j);
+
+			    if (newScore > score) {
+				score = newScore;
+				goAgain = true;
+			    } else if (group == 0) {
+				// swap back
+				evaluator.swapColumns(i, j);
+			    } else {
+				evaluator.swapRows(i, j);
+			    }
+
+			    if (!budget.charge(1)) {
+				break search;
+			    }
+			}
+		    }
 		}
 	    }
+
+	    if (score > bestScore && isAcceptable(score)) {
+		bestScore = score;
+		bestCol = evaluator.getColumnOrder().clone();
+		bestRow = evaluator.getRowOrder().clone();
+	    }
 	}
 
-	if (col != bestCol) {
-	    col.clear();
-	    col.addAll(bestCol);
+	// the interrupted climb may still be the best
+	final float score = evaluator.getFitness();
+	if (score > bestScore && isAcceptable(score)) {
+	    bestCol = evaluator.getColumnOrder().clone();
+	    bestRow = evaluator.getRowOrder().clone();
 	}
 
-	if (row != bestRow) {
-	    row.clear();
-	    row.addAll(bestRow);
+	if (bestCol == null) {
+	    return false;
 	}
 
+	// the climb used up the evaluations, but the deadline still holds
+	orderSlots(col, row, bestCol, bestRow, random, budget.limit(0));
+	arrange(col, bestCol);
+	arrange(row, bestRow);
+	return true;
     }
 
     /**
-     * Reads the log pattern tetragram frequencies from a file.
+     * Orders the slots of an arrangement by hill-climbing on the digraphic
+     * index of coincidence. A move reverses or rotates a range of slots, or
+     * swaps two slots. None of these change the index of coincidence of the
+     * arrangement. The climb can still get stuck when blocks of slots are
+     * each in the right order, so it restarts from random orders and keeps
+     * the best.
      * 
-     * @param filename
-     *            Filename
-     * @throws IOException
-     *             Error while reading from file
+     * @param col
+     *            List of transposition grid columns that map to columns in the
+     *            Polybius square
+     * @param row
+     *            List of transposition grid columns that map to rows in the
+     *            Polybius square
+     * @param colOrder
+     *            Column index in every slot, changed in place
+     * @param rowOrder
+     *            Row index in every slot, changed in place
+     * @param random
+     *            Random number generator of the restarts
+     * @param budget
+     *            Budget of the restarts after the first
      */
-    private void readPatterntetragrams(final String filename)
-	    throws IOException {
-	final InputStream file = new FileInputStream(filename);
-	final DataInputStream in = new DataInputStream(file);
-
-	final int size = in.readInt();
+    private static void orderSlots(final List<Column> col,
+	    final List<Column> row, final int[] colOrder,
+	    final int[] rowOrder, final Random random, final Budget budget) {
+	final int slots = Math.min(col.size(), row.size());
+	final int[] start = new int[slots];
+	final int[] aCol = colOrder.clone();
+	final int[] aRow = rowOrder.clone();
+	final int[] newCol = colOrder.clone();
+	final int[] newRow = rowOrder.clone();
+	float bestScore = digraphFitness(col, row, colOrder, rowOrder);
+
+	int evaluations = 0;
+	for (int restart = 0; restart < SLOT_RESTARTS; restart++) {
+	    if (restart > 0 && !budget.charge(evaluations)) {
+		break;
+	    }
 
-	for (int i = 0; i < size; i++) {
-	    final int[] tet = new int[4];
-	    for (int j = 0; j < 4; j++) {
-		tet[j] = in.readInt();
+	    // the first climb starts from the given order
+	    evaluations = 0;
+	    shuffle(start, restart == 0 ? null : random);
+	    for (int i = 0; i < slots; i++) {
+		aCol[i] = colOrder[start[i]];
+		aRow[i] = rowOrder[start[i]];
+	    }
+	    float score = digraphFitness(col, row, aCol, aRow);
+
+	    boolean goAgain = true;
+	    while (goAgain) {
+		goAgain = false;
+
+		for (int i = 0; i < slots - 1; i++) {
+		    for (int j = i + 1; j < slots; j++) {
+			for (int move = 0; move < SLOT_MOVES; move++) {
+			    moveSlots(aCol, newCol, move, i, j);
+			    moveSlots(aRow, newRow, move, i, j);
+			    final float newScore = digraphFitness(col, row,
+				    newCol, newRow);
+			    evaluations++;
+
+			    if (newScore > score) {
+				score = newScore;
+				System.arraycopy(newCol, 0, aCol, 0, slots);
+				System.arraycopy(newRow, 0, aRow, 0, slots);
+				goAgain = true;
+			    }
+			}
+		    }
+		}
 	    }
 
-	    patternFreq.put(new IntArrayWrapper(tet), in.readDouble());
+	    if (score > bestScore) {
+		bestScore = score;
+		System.arraycopy(aCol, 0, colOrder, 0, slots);
+		System.arraycopy(aRow, 0, rowOrder, 0, slots);
+	    }
 	}
-
-	LOG.info("Pattern tetragrams read.");
-
-	in.close();
     }
 
     /**
-     * Writes the pattern table to a file.
+     * Applies a move to the slots <code>i</code> to <code>j</code> of an
+     * order.
      * 
-     * @param filename
-     *            Name of output file
-     * @param text
-     *            Text to calculate log tetragram pattern frequencies from
-     * @throws IOException
-     *             Error while writing to a file
+     * @param order
+     *            Index in every slot
+     * @param result
+     *            Array to write the moved order to, as long as the order
+     * @param move
+     *            0 swaps slots i and j, 1 reverses the range, 2 rotates it to
+     *            the left and 3 to the right
+     * @param i
+     *            First slot of the range
+     * @param j
+     *            Last slot of the range
      */
-    public void writePattern(final String filename, final String text)
-	    throws IOException {
-	final Map<IntArrayWrapper, Double> patTet = calcPatternFrequencies(text);
-
-	final OutputStream fstream = new FileOutputStream("pat.dat");
-	final DataOutputStream out = new DataOutputStream(fstream);
-	out.writeInt(patTet.size());
-
-	/* Print the map */
-	for (final Entry<IntArrayWrapper, Double> entry : patTet.entrySet()) {
-	    for (int i = 0; i < 4; i++) {
-		System.out.print(entry.getKey().getData()[i]);
-		out.writeInt(entry.getKey().getData()[i]);
+    private static void moveSlots(final int[] order, final int[] result,
+	    final int move, final int i, final int j) {
+	System.arraycopy(order, 0, result, 0, order.length);
+
+	switch (move) {
+	case 0:
+	    result[i] = order[j];
+	    result[j] = order[i];
+	    break;
+	case 1:
+	    for (int k = i; k <= j; k++) {
+		result[k] = order[i + j - k];
 	    }
+	    break;
+	case 2:
+	    System.arraycopy(order, i + 1, result, i, j - i);
+	    result[j] = order[i];
+	    break;
+	default:
+	    System.arraycopy(order, i, result, i + 1, j - i);
+	    result[i] = order[j];
+	    break;
+	}
+    }
 
-	    System.out.print(" "
-		    + Math.log(entry.getValue() / (text.length() - 3)) + "\n");
+    /**
+     * Swaps two elements of an array.
+     * 
+     * @param order
+     *            Array
+     * @param i
+     *            First index
+     * @param j
+     *            Second index
+     */
+    private static void swap(final int[] order, final int i, final int j) {
+	final int tmp = order[i];
+	order[i] = order[j];
+	order[j] = tmp;
+    }
 
-	    out.writeDouble(Math.log(entry.getValue() / (text.length() - 3)));
+    /**
+     * Sets an array to a random permutation of its indices.
+     * 
+     * @param order
+     *            Array to overwrite
+     * @param random
+     *            Random number generator, or <code>null</code> to keep the
+     *            indices in order
+     */
+    private static void shuffle(final int[] order, final Random random) {
+	for (int i = 0; i < order.length; i++) {
+	    order[i] = i;
 	}
 
-	out.close();
+	for (int i = order.length - 1; random != null && i > 0; i--) {
+	    swap(order, i, random.nextInt(i + 1));
+	}
+    }
+
+    /**
+     * Rearranges columns in place.
+     * 
+     * @param columns
+     *            Columns to rearrange
+     * @param order
+     *            Index of the column that goes to every position
+     */
+    private static void arrange(final List<Column> columns,
+	    final int[] order) {
+	final List<Column> copy = new ArrayList<Column>(
+		columns);
+
+	for (int i = 0; i < order.length; i++) {
+	    columns.set(i, copy.get(order[i]));
+	}
     }
 }
@@ -1,10 +1,10 @@
 package adfgvx;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
 
 /**
  * This class is a useful representation of a Polybius square. This square is
@@ -18,27 +18,13 @@ public class PolybiusSquare {
     /** Names of the keys (labels) of the rows and columns. */
     public static char[] keyName = { 'A', 'D', 'F', 'G', 'V', 'X' };
 
-    /**
-     * Helper class that defines an entry in the square.
-     * 
-     * @author Ben Ruijl
-     * 
-     */
-    private static class Entry {
-        private final int col;
-        private final int row;
-
-        public Entry(final int col, final int row) {
-            this.col = col;
-            this.row = row;
-        }
+    /** Index of every key name character, or -1. */
+    private static final byte[] KEY_NAME_INDEX = new byte[256];
 
-        public int getCol() {
-            return col;
-        }
-
-        public int getRow() {
-            return row;
+    static {
+        Arrays.fill(KEY_NAME_INDEX, (byte) -1);
+        for (int i = 0; i < keyName.length; i++) {
+            KEY_NAME_INDEX[keyName[i]] = (byte) i;
         }
     }
 
@@ -46,36 +32,15 @@ public class PolybiusSquare {
     private final char[][] square = new char[6][6];
 
     /**
-     * The inverse of the square: a map from a character in the square to the
-     * row and column index.
+     * First key name index of every character in the square, or -1. This is
+     * the column of the character.
      */
-    private final Map<Character, Entry> inverseSquare;
-
+    private final byte[] firstSymbol = new byte[256];
     /**
-     * Maps a key name (label) to an index.
-     * 
-     * @param key
-     *            Key in <code>keyName</code>
-     * @return Index
+     * Second key name index of every character in the square, or -1. This is
+     * the row of the character.
      */
-    private static int keyNameToIndex(final char key) {
-        switch (key) {
-        case 'A':
-            return 0;
-        case 'D':
-            return 1;
-        case 'F':
-            return 2;
-        case 'G':
-            return 3;
-        case 'V':
-            return 4;
-        case 'X':
-            return 5;
-        default:
-            return -1;
-        }
-    }
+    private final byte[] secondSymbol = new byte[256];
 
     /**
      * Creates a new Polybius square.
@@ -84,40 +49,139 @@ public class PolybiusSquare {
      *            Characters in the grid, specified row-wise.
      */
     public PolybiusSquare(final List<Character> squareData) {
-        inverseSquare = new HashMap<Character, Entry>();
+        Arrays.fill(firstSymbol, (byte) -1);
+        Arrays.fill(secondSymbol, (byte) -1);
 
         for (int i = 0; i < squareData.size(); i++) {
-            square[i / 6][i % 6] = squareData.get(i);
-            inverseSquare.put(squareData.get(i), new Entry(i / 6, i % 6));
+            final char c = squareData.get(i);
+            if (c >= firstSymbol.length) {
+                throw new IllegalArgumentException("Character " + c
+                        + " cannot be put in the square.");
+            }
+
+            square[i / 6][i % 6] = c;
+            firstSymbol[c] = (byte) (i % 6);
+            secondSymbol[c] = (byte) (i / 6);
+        }
+    }
+
+    /**
+     * Converts key names to their indices in <code>keyName</code>.
+     * 
+     * @param text
+     *            Text consisting of key names
+     * @param output
+     *            Buffer for the indices, at least as long as the text
+     */
+    public static void toKeyNameIndices(final String text,
+            final byte[] output) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            final int index = c < KEY_NAME_INDEX.length ? KEY_NAME_INDEX[c]
+                    : -1;
+
+            if (index < 0) {
+                throw new IllegalArgumentException("Symbol " + c
+                        + " is not a key name.");
+            }
+
+            output[i] = (byte) index;
         }
+    }
 
+    /**
+     * Gets the length of the text that columns and rows unfraction to.
+     * 
+     * @param row
+     *            List of row key names
+     * @param col
+     *            List of column key names
+     * @return Number of symbols of the unfractioned text
+     */
+    public static int unFractionLength(final List<Column> row,
+            final List<Column> col) {
+        final int slots = Math.min(row.size(), col.size());
+
+        int length = 0;
+        for (int i = 0; i < slots; i++) {
+            length += Math.min(row.get(i).size(), col.get(i).size());
+        }
+
+        return length;
     }
 
     /**
-     * Unfractions the text by mapping the bigram of key names to the value in
-     * the grid it represents. It finds the bigram by matching the correct row
-     * and column key names.
+     * Unfractions the text into a buffer of indices in
+     * <code>plainAlphabet</code>. The rows that every pair of a row and a
+     * column reaches are written one pair at a time, as a strided column of
+     * the output. Only the last rows of a ragged grid are written row by row.
      * 
      * @param row
      *            List of row key names
      * @param col
      *            List of column key names
-     * @return Unfractioned text
+     * @param output
+     *            Buffer of at least <code>unFractionLength(row, col)</code>
+     *            bytes
+     * @return Number of symbols written
      */
-    public static String unFraction(final List<List<Character>> row,
-            final List<List<Character>> col) {
-        final StringBuffer buffer = new StringBuffer();
-
-        /* Generate text from cols and rows */
-        for (int j = 0; j < row.get(0).size(); j++) { // which row
-            for (int i = 0; i < row.size(); i++) { // which col
-                final int index = keyNameToIndex(row.get(i).get(j)) * 6
-                        + keyNameToIndex(col.get(i).get(j));
-                buffer.append(Encryption.plainAlphabet.charAt(index));
+    public static int unFraction(final List<Column> row,
+            final List<Column> col, final byte[] output) {
+        final int slots = Math.min(row.size(), col.size());
+
+        int fullRows = Integer.MAX_VALUE;
+        int rows = 0;
+        for (int i = 0; i < slots; i++) {
+            final int length = Math.min(row.get(i).size(), col.get(i).size());
+            fullRows = Math.min(fullRows, length);
+            rows = Math.max(rows, length);
+        }
+
+        if (slots == 0) {
+            return 0;
+        }
+
+        for (int i = 0; i < slots; i++) {
+            final Column r = row.get(i);
+            final Column c = col.get(i);
+
+            for (int j = 0, k = i; j < fullRows; j++, k += slots) {
+                output[k] = (byte) (r.get(j) * 6 + c.get(j));
             }
         }
 
-        return buffer.toString();
+        int position = fullRows * slots;
+        for (int j = fullRows; j < rows; j++) {
+            for (int i = 0; i < slots; i++) {
+                final Column r = row.get(i);
+                final Column c = col.get(i);
+
+                if (j < r.size() && j < c.size()) {
+                    output[position++] = (byte) (r.get(j) * 6 + c.get(j));
+                }
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Unfractions the text by mapping the bigram of key names to the value in
+     * the grid it represents. It finds the bigram by matching the correct row
+     * and column key names. If the columns differ in length, a row of the
+     * text only has the bigrams whose row and column both reach it.
+     * 
+     * @param row
+     *            List of row key names
+     * @param col
+     *            List of column key names
+     * @return Unfractioned text
+     */
+    public static String unFraction(final List<Column> row,
+            final List<Column> col) {
+        final byte[] symbols = new byte[unFractionLength(row, col)];
+        unFraction(row, col, symbols);
+        return Encryption.toText(symbols);
     }
 
     /**
@@ -128,17 +192,57 @@ public class PolybiusSquare {
      * @see Encryption#plainAlphabet
      */
     public static PolybiusSquare generateRandomSquare() {
+        return generateRandomSquare(new Random());
+    }
+
+    /**
+     * Generates a random square, using the alphabet of
+     * <code>plainAlphabet</code>
+     * 
+     * @param random
+     *            Random number generator
+     * @return Random square
+     * @see Encryption#plainAlphabet
+     */
+    public static PolybiusSquare generateRandomSquare(final Random random) {
         final List<Character> squareData = new ArrayList<Character>();
 
         for (int i = 0; i < Encryption.plainAlphabet.length(); i++) {
             squareData.add(Encryption.plainAlphabet.charAt(i));
         }
 
-        Collections.shuffle(squareData);
+        Collections.shuffle(squareData, random);
 
         return new PolybiusSquare(squareData);
     }
 
+    /**
+     * Fractions a text into a buffer of key name indices. Every character
+     * becomes the index of its column, followed by that of its row.
+     * 
+     * @param input
+     *            Characters of the text, one per byte
+     * @param length
+     *            Number of characters to fraction
+     * @param output
+     *            Buffer of at least <code>2 * length</code> bytes
+     */
+    public void fraction(final byte[] input, final int length,
+            final byte[] output) {
+        for (int i = 0; i < length; i++) {
+            final int c = input[i] & 0xFF;
+            final byte first = firstSymbol[c];
+
+            if (first < 0) {
+                throw new IllegalArgumentException("Character " + (char) c
+                        + " is not in the square.");
+            }
+
+            output[2 * i] = first;
+            output[2 * i + 1] = secondSymbol[c];
+        }
+    }
+
     /**
      * Fractions a text using the square.
      * 
@@ -147,15 +251,22 @@ public class PolybiusSquare {
      * @return Fractioned text
      */
     public String fraction(final String input) {
-        final StringBuffer result = new StringBuffer();
+        final char[] result = new char[2 * input.length()];
 
         for (int i = 0; i < input.length(); i++) {
-            final Entry entry = inverseSquare.get(input.charAt(i));
-            result.append(keyName[entry.getRow()]);
-            result.append(keyName[entry.getCol()]);
+            final char c = input.charAt(i);
+            final byte first = c < firstSymbol.length ? firstSymbol[c] : -1;
+
+            if (first < 0) {
+                throw new IllegalArgumentException("Character " + c
+                        + " is not in the square.");
+            }
+
+            result[2 * i] = keyName[first];
+            result[2 * i + 1] = keyName[secondSymbol[c]];
         }
 
-        return result.toString();
+        return new String(result);
     }
 
     /**
@@ -0,0 +1,315 @@
+package adfgvx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs independent hill-climbing restarts of the monoalphabetic substitution
+ * solver in parallel. Every restart gets its own random number generator,
+ * whose seed is drawn in order from a master seed, so the result only depends
+ * on the seed and not on the number of threads or the scheduling. The restarts
+ * are divided over a few tasks that each reuse one solver state. All restarts
+ * share a budget, and the search returns the best candidate when it runs out.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Analysis#hillClimb(SubstitutionState)
+ */
+public class RestartSearch {
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(RestartSearch.class);
+    /** Metrics. */
+    private static final Metrics METRICS = Metrics.getInstance();
+    /** Relative difference below which two optima are the same. */
+    private static final double SAME_OPTIMUM = 1e-9;
+
+    /** Analyzer that provides the hill-climber. */
+    private final Analysis analysis;
+    /** Reference tetragram table. */
+    private final Tetragram tetragram;
+    /** Executor of the tasks. */
+    private final ExecutorService executor;
+    /** Largest number of tasks per search. */
+    private final int parallelism;
+
+    /**
+     * Creates a new restart search.
+     * 
+     * @param analysis
+     *            Analyzer that provides the hill-climber
+     * @param tetragram
+     *            Reference tetragram table
+     * @param executor
+     *            Executor of the tasks, for example a fork-join pool
+     * @param parallelism
+     *            Largest number of tasks per search, usually the number of
+     *            threads of the executor
+     */
+    public RestartSearch(final Analysis analysis, final Tetragram tetragram,
+            final ExecutorService executor, final int parallelism) {
+        this.analysis = analysis;
+        this.tetragram = tetragram;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Finds the best substitution over a number of random restarts. Ties are
+     * broken in favour of the earliest restart.
+     * 
+     * @param cipherText
+     *            Cipher text as indices in <code>plainAlphabet</code>
+     * @param restarts
+     *            Number of restarts
+     * @param seed
+     *            Master seed of the restarts
+     * @return Best substitution from cipher text to plain text
+     */
+    public Substitution solve(final byte[] cipherText, final int restarts,
+            final long seed) {
+        return solve(cipherText, restarts, seed, Budget.unlimited())
+                .getSubstitution();
+    }
+
+    /**
+     * Finds the best substitution over a number of random restarts, until the
+     * budget is exhausted. A restart that is stopped still offers its current
+     * substitution, so there is always a result.
+     * Ties are broken in favour of the earliest restart.
+     * 
+     * @param cipherText
+     *            Cipher text as indices in <code>plainAlphabet</code>
+     * @param restarts
+     *            Number of restarts
+     * @param seed
+     *            Master seed of the restarts
+     * @param budget
+     *            Budget of fitness evaluations and time, shared by all
+     *            restarts
+     * @return Best substitution and its fitness
+     */
+    public SolveResult solve(final byte[] cipherText, final int restarts,
+            final long seed, final Budget budget) {
+        final long start = System.nanoTime();
+        final Random master = new Random(seed);
+        final long[] seeds = new long[restarts];
+        for (int i = 0; i < restarts; i++) {
+            seeds[i] = master.nextLong();
+        }
+
+        final AtomicReference<Result> best = new AtomicReference<Result>();
+        final AtomicInteger finished = new AtomicInteger();
+        final double[] fitnesses = new double[restarts];
+        Arrays.fill(fitnesses, Double.NaN);
+        final int tasks = Math.min(restarts, parallelism);
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        for (int i = 0; i < tasks; i++) {
+            // restarts i, i + tasks, i + 2 * tasks, ...
+            futures.add(executor.submit(new Task(cipherText, seeds, i, tasks,
+                    budget, best, finished, fitnesses)));
+        }
+
+        try {
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while solving.");
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Restart failed.", e.getCause());
+        } finally {
+            for (final Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        final Result result = best.get();
+        recordSolve(System.nanoTime() - start, fitnesses, result);
+
+        if (result == null) {
+            final Substitution substitution = Substitution.random(master);
+            return new SolveResult(cipherText, substitution, tetragram
+                    .fitness(cipherText, substitution), 0, budget
+                    .getEvaluations(), true);
+        }
+
+        return new SolveResult(cipherText, result.substitution,
+                result.fitness, finished.get(), budget.getEvaluations(),
+                budget.isExhausted());
+    }
+
+    /**
+     * Records the metrics of a search. The restarts that end within a tiny
+     * relative difference of the best fitness count as converged to the
+     * best optimum, since the fitness of a state is updated incrementally.
+     * 
+     * @param nanos
+     *            Duration of the search in nanoseconds
+     * @param fitnesses
+     *            Final fitness of every restart, or NaN if it did not run
+     * @param result
+     *            Best result, or <code>null</code>
+     */
+    private static void recordSolve(final long nanos,
+            final double[] fitnesses, final Result result) {
+        int count = 0;
+        int atBest = 0;
+        for (final double fitness : fitnesses) {
+            if (Double.isNaN(fitness)) {
+                continue;
+            }
+
+            count++;
+            if (result != null
+                    && Math.abs(fitness - result.fitness) <= SAME_OPTIMUM
+                            * Math.abs(result.fitness)) {
+                atBest++;
+            }
+        }
+
+        METRICS.recordSolve(nanos, count, atBest);
+    }
+
+    /**
+     * Best substitution found by a restart.
+     */
+    private static class Result {
+        /** Fitness of the substitution. */
+        private final double fitness;
+        /** Index of the restart. */
+        private final int restart;
+        /** Substitution from cipher text to plain text. */
+        private final Substitution substitution;
+
+        public Result(final double fitness, final int restart,
+                final Substitution substitution) {
+            this.fitness = fitness;
+            this.restart = restart;
+            this.substitution = substitution;
+        }
+
+        /**
+         * Checks if this result beats another one.
+         * 
+         * @param other
+         *            Other result, or <code>null</code>
+         * @return True if this result has a higher fitness, or the same
+         *         fitness and an earlier restart
+         */
+        public boolean beats(final Result other) {
+            return other == null || fitness > other.fitness
+                    || (fitness == other.fitness && restart < other.restart);
+        }
+    }
+
+    /**
+     * A task that runs every n-th restart with a single solver state.
+     */
+    private class Task implements Callable<Void> {
+        /** Cipher text as indices in <code>plainAlphabet</code>. */
+        private final byte[] cipherText;
+        /** Seed of every restart. */
+        private final long[] seeds;
+        /** First restart of this task. */
+        private final int first;
+        /** Distance between the restarts of this task. */
+        private final int step;
+        /** Budget of all tasks. */
+        private final Budget budget;
+        /** Best result of all tasks. */
+        private final AtomicReference<Result> best;
+        /** Number of restarts that ran to the end. */
+        private final AtomicInteger finished;
+        /** Final fitness of every restart. */
+        private final double[] fitnesses;
+
+        public Task(final byte[] cipherText, final long[] seeds,
+                final int first, final int step, final Budget budget,
+                final AtomicReference<Result> best,
+                final AtomicInteger finished, final double[] fitnesses) {
+            this.cipherText = cipherText;
+            this.seeds = seeds;
+            this.first = first;
+            this.step = step;
+            this.budget = budget;
+            this.best = best;
+            this.finished = finished;
+            this.fitnesses = fitnesses;
+        }
+
+        @Override
+        public Void call() {
+            SubstitutionState state = null;
+
+            for (int i = first; i < seeds.length; i += step) {
+                // the first restart always offers a result
+                if (Thread.currentThread().isInterrupted()
+                        || (budget.isExhausted() && i != first)) {
+                    return null;
+                }
+
+                final Substitution start = Substitution.random(new Random(
+                        seeds[i]));
+                if (state == null) {
+                    state = new SubstitutionState(tetragram, cipherText, start);
+                } else {
+                    state.reset(start);
+                }
+
+                final double fitness = analysis.hillClimb(state, budget);
+                // every restart has its own slot, read after the tasks end
+                fitnesses[i] = fitness;
+                offer(new Result(fitness, i, state.getSubstitution()));
+
+                if (!budget.isExhausted()) {
+                    finished.incrementAndGet();
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Replaces the best result if a result beats it. The substitution is
+         * only copied when it wins.
+         * 
+         * @param candidate
+         *            Result of a restart, with a substitution that is still
+         *            in use by the state
+         */
+        private void offer(final Result candidate) {
+            Result current = best.get();
+            if (!candidate.beats(current)) {
+                return;
+            }
+
+            final Result copy = new Result(candidate.fitness,
+                    candidate.restart, new Substitution(
+                            candidate.substitution));
+
+            while (copy.beats(current)) {
+                if (best.compareAndSet(current, copy)) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Restart " + copy.restart + ": "
+                                + copy.fitness);
+                    }
+                    return;
+                }
+
+                current = best.get();
+            }
+        }
+    }
+}
@@ -1,109 +1,306 @@
 package adfgvx;
 
-import gnu.trove.TObjectIntHashMap;
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-
-import utils.Utils;
+import java.util.Random;
 
 /**
  * This class provides functions that help identify which columns in the
  * transposition grid are columns/rows in the Polybius square.
  * 
+ * A split of the columns into two groups is stored as a bit mask of the group
+ * that contains column 0. Since swapping the groups gives the same score,
+ * only splits with column 0 in the mask are considered.
+ * 
  * @author Ben Ruijl
  * 
  */
 public class RowIdentifier {
+    /** Largest number of columns that is searched exhaustively. */
+    public static final int MAX_EXHAUSTIVE_COLUMNS = 24;
+    /** Number of restarts of the local search. */
+    private static final int LOCAL_SEARCH_RESTARTS = 64;
+    /** Metrics. */
+    private static final Metrics METRICS = Metrics.getInstance();
 
     /**
-     * Finds the dissimilarity in a group of frequencies.
+     * Finds the amount of dissimilarity between two histograms.
      * 
-     * @param freqs
-     *            Frequencies
+     * @param freqA
+     *            Histogram of a column
+     * @param freqB
+     *            Histogram of a column
      * @return The amount of dissimilarity
      */
-    private static float groupDissimilarity(
-	    final List<TObjectIntHashMap<Character>> freqs) {
-	float score = 0;
+    private static int dissimilarity(final int[] freqA, final int[] freqB) {
+	int score = 0;
 
-	for (int i = 0; i < freqs.size() - 1; i++) {
-	    for (int j = i + 1; j < freqs.size(); j++) {
-		score += dissimilarity(freqs.get(i), freqs.get(j));
-	    }
+	for (int i = 0; i < freqA.length; i++) {
+	    score += (freqA[i] - freqB[i]) * (freqA[i] - freqB[i]);
 	}
 
 	return score;
     }
 
     /**
-     * Finds the amount of dissimilarity between two frequencies.
+     * Calculates the dissimilarity of every pair of columns.
      * 
-     * @param freqA
-     *            Frequency of a column
-     * @param freqB
-     *            Frequency of a column
-     * @return The amount of dissimilarity
+     * @param histograms
+     *            Histogram of every column
+     * @return Dissimilarity matrix
      */
-    private static int dissimilarity(final TObjectIntHashMap<Character> freqA,
-	    final TObjectIntHashMap<Character> freqB) {
-	int score = 0;
+    public static int[][] dissimilarityMatrix(final int[][] histograms) {
+	final int n = histograms.length;
+	final int[][] d = new int[n][n];
+
+	for (int i = 0; i < n; i++) {
+	    for (int j = i + 1; j < n; j++) {
+		d[i][j] = d[j][i] = dissimilarity(histograms[i], histograms[j]);
+	    }
+	}
 
-	for (final Character key : PolybiusSquare.keyName) {
-	    int first = freqA.get(key);
-	    int second = freqB.get(key);
+	return d;
+    }
 
-	    score += (first - second) * (first - second);
+    /**
+     * Calculates the score of a split, which is the sum of the dissimilarities
+     * within both groups.
+     * 
+     * @param d
+     *            Dissimilarity matrix
+     * @param mask
+     *            Columns in the first group
+     * @return Score, lower is better
+     */
+    public static long score(final int[][] d, final long mask) {
+	long score = 0;
 
+	for (int i = 0; i < d.length; i++) {
+	    for (int j = i + 1; j < d.length; j++) {
+		if (((mask >>> i) & 1) == ((mask >>> j) & 1)) {
+		    score += d[i][j];
+		}
+	    }
 	}
 
 	return score;
     }
 
     /**
-     * Finds the optimal grouping of Polybius square rows and columns.
+     * Finds the best split of the columns into a group of <code>n / 2</code>
+     * and a group of <code>n - n / 2</code> columns by trying every split. The
+     * splits are enumerated in Gray code order, so that every step moves a
+     * single column and the score is updated in O(n).
      * 
-     * @param col
-     *            Column that is a column in the square
-     * @param row
-     *            Column that is a row in the square
+     * @param d
+     *            Dissimilarity matrix
+     * @return Columns in the group that contains column 0
      */
-    public static void findOptimalGrouping(
-	    final List<TObjectIntHashMap<Character>> col,
-	    final List<TObjectIntHashMap<Character>> row) {
-	final List<TObjectIntHashMap<Character>> total = new ArrayList<TObjectIntHashMap<Character>>();
-	total.addAll(col);
-	total.addAll(row);
-
-	// TODO: prevent checking everything twice (col,row=row,col)
-	List<List<TObjectIntHashMap<Character>>> comb = Utils.combinations(
-		total, total.size() / 2);
-
-	float bestScore = Float.MAX_VALUE;
-	List<TObjectIntHashMap<Character>> bestc = null;
-	List<TObjectIntHashMap<Character>> bestr = null;
-	for (List<TObjectIntHashMap<Character>> c : comb) {
-	    List<TObjectIntHashMap<Character>> r = Utils
-		    .complementary(total, c);
-
-	    final float score = groupDissimilarity(c) + groupDissimilarity(r);
+    public static long findOptimalSplit(final int[][] d) {
+	final int n = d.length;
+	if (n > 63) {
+	    throw new IllegalArgumentException("Too many columns: " + n);
+	} else if (n == 0) {
+	    return 0;
+	}
+
+	final int small = n / 2;
+	final int large = n - small;
+
+	// sum of the dissimilarities of every column to the columns in the
+	// mask, and to all columns
+	final long[] inMask = new long[n];
+	final long[] total = new long[n];
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < n; j++) {
+		total[i] += d[i][j];
+	    }
+	    inMask[i] = d[i][0];
+	}
+
+	// start with only column 0 in the mask
+	long mask = 1;
+	int size = 1;
+	long withinMask = 0;
+	long withinRest = score(d, ~1L);
+
+	long bestMask = 0;
+	long bestScore = Long.MAX_VALUE;
+
+	final long steps = 1L << (n - 1);
+	for (long step = 0; step < steps; step++) {
+	    if (step > 0) {
+		// the Gray code of step differs in the lowest set bit
+		final int column = Long.numberOfTrailingZeros(step) + 1;
+		final long bit = 1L << column;
+
+		if ((mask & bit) == 0) {
+		    withinMask += inMask[column];
+		    withinRest -= total[column] - inMask[column];
+		    mask |= bit;
+		    size++;
+		    for (int i = 0; i < n; i++) {
+			inMask[i] += d[i][column];
+		    }
+		} else {
+		    mask &= ~bit;
+		    size--;
+		    for (int i = 0; i < n; i++) {
+			inMask[i] -= d[i][column];
+		    }
+		    withinMask -= inMask[column];
+		    withinRest += total[column] - inMask[column];
+		}
+	    }
+
+	    if ((size == small || size == large)
+		    && withinMask + withinRest < bestScore) {
+		bestScore = withinMask + withinRest;
+		bestMask = mask;
+	    }
+	}
+
+	return bestMask;
+    }
 
+    /**
+     * Finds a good split of the columns into a group of <code>n / 2</code>
+     * and a group of <code>n - n / 2</code> columns by local search. Starting
+     * from random splits, the pair of columns from different groups whose
+     * exchange improves the score most is exchanged, until no exchange
+     * improves it.
+     * 
+     * @param d
+     *            Dissimilarity matrix
+     * @param restarts
+     *            Number of random starting splits
+     * @param random
+     *            Random number generator
+     * @return Columns in the group that contains column 0
+     */
+    public static long findGoodSplit(final int[][] d, final int restarts,
+	    final Random random) {
+	final int n = d.length;
+	if (n > 63) {
+	    throw new IllegalArgumentException("Too many columns: " + n);
+	}
+
+	final long[] inMask = new long[n];
+	final long[] total = new long[n];
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < n; j++) {
+		total[i] += d[i][j];
+	    }
+	}
+
+	final int[] columns = new int[n];
+	long bestMask = 0;
+	long bestScore = Long.MAX_VALUE;
+
+	for (int r = 0; r < restarts; r++) {
+	    for (int i = 0; i < n; i++) {
+		columns[i] = i;
+	    }
+	    for (int i = n - 1; i > 0; i--) {
+		final int j = random.nextInt(i + 1);
+		final int tmp = columns[i];
+		columns[i] = columns[j];
+		columns[j] = tmp;
+	    }
+
+	    long mask = 0;
+	    for (int i = 0; i < n / 2; i++) {
+		mask |= 1L << columns[i];
+	    }
+
+	    for (int i = 0; i < n; i++) {
+		inMask[i] = 0;
+		for (int j = 0; j < n; j++) {
+		    if ((mask & (1L << j)) != 0) {
+			inMask[i] += d[i][j];
+		    }
+		}
+	    }
+
+	    while (true) {
+		long bestDelta = 0;
+		int bestA = -1, bestB = -1;
+
+		for (int a = 0; a < n; a++) {
+		    if ((mask & (1L << a)) == 0) {
+			continue;
+		    }
+
+		    for (int b = 0; b < n; b++) {
+			if ((mask & (1L << b)) != 0) {
+			    continue;
+			}
+
+			// a leaves the mask, b joins it
+			final long delta = -inMask[a]
+				+ (total[a] - inMask[a] - d[a][b])
+				+ (inMask[b] - d[a][b])
+				- (total[b] - inMask[b]);
+
+			if (delta < bestDelta) {
+			    bestDelta = delta;
+			    bestA = a;
+			    bestB = b;
+			}
+		    }
+		}
+
+		if (bestA < 0) {
+		    break;
+		}
+
+		mask ^= (1L << bestA) | (1L << bestB);
+		for (int i = 0; i < n; i++) {
+		    inMask[i] += d[i][bestB] - d[i][bestA];
+		}
+	    }
+
+	    final long score = score(d, mask);
 	    if (score < bestScore) {
 		bestScore = score;
-		bestc = c;
-		bestr = r;
+		bestMask = mask;
 	    }
 	}
 
-	if (col != bestc) {
-	    col.clear();
-	    col.addAll(bestc);
+	// put column 0 in the mask, like the exhaustive search
+	return (bestMask & 1) != 0 ? bestMask : ~bestMask & ((1L << n) - 1);
+    }
+
+    /**
+     * Finds the optimal grouping of Polybius square rows and columns. Up to
+     * <code>MAX_EXHAUSTIVE_COLUMNS</code> columns, every split is tried.
+     * Beyond that, a local search is used.
+     * 
+     * @param columns
+     *	      Statistics of the columns of the transposition grid
+     * @return Mask of the <code>n / 2</code> columns that are columns in the
+     *	   square, where bit i stands for <code>columns[i]</code>
+     */
+    public static long findOptimalGrouping(final ColumnStatistics[] columns) {
+	final long start = System.nanoTime();
+	final int[][] histograms = new int[columns.length][];
+	for (int i = 0; i < histograms.length; i++) {
+	    histograms[i] = columns[i].getHistogram();
+	}
+
+	final int[][] d = dissimilarityMatrix(histograms);
+	final long mask;
+	if (columns.length <= MAX_EXHAUSTIVE_COLUMNS) {
+	    mask = findOptimalSplit(d);
+	} else {
+	    mask = findGoodSplit(d, LOCAL_SEARCH_RESTARTS, new Random(0));
 	}
 
-	if (row != bestr) {
-	    row.clear();
-	    row.addAll(bestr);
+	METRICS.recordGrouping(System.nanoTime() - start);
+
+	// the smaller group are the columns
+	if (Long.bitCount(mask) == columns.length / 2) {
+	    return mask;
 	}
+
+	return ~mask & ((1L << columns.length) - 1);
     }
 }
@@ -0,0 +1,106 @@
+package adfgvx;
+
+/**
+ * The best candidate of a monoalphabetic substitution search, which may have
+ * been stopped by its budget.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Budget
+ */
+public class SolveResult {
+    /** Cipher text as indices in <code>plainAlphabet</code>. */
+    private final byte[] cipherText;
+    /** Best substitution from cipher text to plain text. */
+    private final Substitution substitution;
+    /** Fitness of the best substitution. */
+    private final double fitness;
+    /** Number of restarts that ran to the end. */
+    private final int restarts;
+    /** Number of fitness evaluations. */
+    private final long evaluations;
+    /** True if the search stopped because of its budget. */
+    private final boolean stopped;
+
+    /**
+     * Creates a new result.
+     * 
+     * @param cipherText
+     *            Cipher text as indices in <code>plainAlphabet</code>
+     * @param substitution
+     *            Best substitution from cipher text to plain text
+     * @param fitness
+     *            Fitness of the best substitution
+     * @param restarts
+     *            Number of restarts that ran to the end
+     * @param evaluations
+     *            Number of fitness evaluations
+     * @param stopped
+     *            True if the search stopped because of its budget
+     */
+    public SolveResult(final byte[] cipherText,
+            final Substitution substitution, final double fitness,
+            final int restarts, final long evaluations, final boolean stopped) {
+        this.cipherText = cipherText;
+        this.substitution = substitution;
+        this.fitness = fitness;
+        this.restarts = restarts;
+        this.evaluations = evaluations;
+        this.stopped = stopped;
+    }
+
+    /**
+     * Gets the best substitution.
+     * 
+     * @return Substitution from cipher text to plain text
+     */
+    public Substitution getSubstitution() {
+        return substitution;
+    }
+
+    /**
+     * Gets the fitness of the best substitution.
+     * 
+     * @return Fitness
+     */
+    public double getFitness() {
+        return fitness;
+    }
+
+    /**
+     * Gets the plain text of the best substitution.
+     * 
+     * @return Plain text
+     */
+    public String getPlainText() {
+        return Encryption.transcribeCipherText(cipherText, substitution);
+    }
+
+    /**
+     * Gets the number of restarts that ran to the end.
+     * 
+     * @return Number of restarts
+     */
+    public int getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * Gets the number of fitness evaluations.
+     * 
+     * @return Number of evaluations
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Checks if the search stopped because of its budget, so that the result
+     * may be worse than that of a full search.
+     * 
+     * @return True if the search was stopped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+}
@@ -0,0 +1,461 @@
+package adfgvx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long-running local service that solves cipher texts over HTTP, so that the
+ * reference tables are only loaded once. All requests share one analyzer,
+ * whose tables are only read.
+ * 
+ * A cipher text is posted as the body of <code>/solve</code>. The optional
+ * query parameters are <code>keyLength</code>, one or more comma separated
+ * key lengths to try, and <code>deadlineMs</code>, the time the client is
+ * willing to wait. The deadline is shared by the key lengths, and includes
+ * the time in the queue. The best result is returned as JSON.
+ * 
+ * Requests are solved by a fixed pool of workers with a bounded queue. When
+ * the queue is full, a request is rejected at once with status 429, and a
+ * request whose deadline passes in the queue is answered with status 503,
+ * so that clients can back off instead of piling up work. The workers write
+ * the responses themselves, so the threads of the HTTP server never wait for
+ * a solve. <code>/health</code> reports the load of the pool.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Analysis#decrypt(String, int, Budget)
+ */
+public class SolverService {
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(SolverService.class);
+    /** Metrics. */
+    private static final Metrics METRICS = Metrics.getInstance();
+
+    /** Key lengths that are tried without a hint. */
+    private static final int[] DEFAULT_KEY_LENGTHS = { 6, 8, 10 };
+    /** Largest key length, limited by the bit masks of the grouping. */
+    private static final int MAX_KEY_LENGTH = 63;
+    /** Deadline of a request without one, in milliseconds. */
+    private static final long DEFAULT_DEADLINE = 10000;
+    /** Longest deadline of a request, in milliseconds. */
+    private static final long MAX_DEADLINE = 120000;
+    /** Largest body of a request, in bytes. */
+    private static final int MAX_BODY = 1 << 20;
+    /** Seconds a rejected client is asked to wait. */
+    private static final int RETRY_AFTER = 1;
+    /** Number of threads of the HTTP server. */
+    private static final int HTTP_THREADS = 2;
+
+    /** Analyzer shared by all workers. */
+    private final Analysis analysis;
+    /** Workers with a bounded queue. */
+    private final ThreadPoolExecutor workers;
+    /** Executor of the HTTP server. */
+    private final ExecutorService httpExecutor;
+    /** HTTP server. */
+    private final HttpServer server;
+    /** Released when the service is stopped. */
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * Creates a new service. It does not accept requests until it is started.
+     * 
+     * @param analysis
+     *            Analyzer shared by all workers
+     * @param address
+     *            Address to listen on
+     * @param workerCount
+     *            Number of requests that are solved at the same time
+     * @param queueCapacity
+     *            Number of requests that can wait for a worker
+     * @throws IOException
+     *             Error while binding the address
+     */
+    public SolverService(final Analysis analysis,
+            final InetSocketAddress address, final int workerCount,
+            final int queueCapacity) throws IOException {
+        this.analysis = analysis;
+
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0L,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+                        Math.max(1, queueCapacity)), new NamedThreadFactory(
+                        "solver"), new ThreadPoolExecutor.AbortPolicy());
+        httpExecutor = Executors.newFixedThreadPool(HTTP_THREADS,
+                new NamedThreadFactory("http"));
+
+        server = HttpServer.create(address, 0);
+        server.setExecutor(httpExecutor);
+        server.createContext("/solve", new SolveHandler());
+        server.createContext("/health", new HealthHandler());
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+        LOG.info("Listening on " + server.getAddress() + " with "
+                + workers.getCorePoolSize() + " workers and a queue of "
+                + workers.getQueue().remainingCapacity() + ".");
+    }
+
+    /**
+     * Stops accepting requests. Requests that are being solved are finished,
+     * and queued requests are dropped.
+     */
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+        httpExecutor.shutdownNow();
+        stopped.countDown();
+    }
+
+    /**
+     * Waits until the service is stopped.
+     * 
+     * @throws InterruptedException
+     *             The thread was interrupted while waiting
+     */
+    public void awaitStop() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * Parses the query parameters of a request.
+     * 
+     * @param exchange
+     *            Request
+     * @return Value of every parameter
+     * @throws UnsupportedEncodingException
+     *             Never, UTF-8 is always supported
+     */
+    private static Map<String, String> parseQuery(final HttpExchange exchange)
+            throws UnsupportedEncodingException {
+        final Map<String, String> parameters = new HashMap<String, String>();
+        final String query = exchange.getRequestURI().getRawQuery();
+
+        if (query == null) {
+            return parameters;
+        }
+
+        for (final String pair : query.split("&")) {
+            final int split = pair.indexOf('=');
+            if (split > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, split),
+                        "UTF-8"), URLDecoder.decode(pair.substring(split + 1),
+                        "UTF-8"));
+            }
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Parses the key lengths of a request.
+     * 
+     * @param hint
+     *            Comma separated key lengths, or <code>null</code>
+     * @return Key lengths to try
+     */
+    private static int[] parseKeyLengths(final String hint) {
+        if (hint == null) {
+            return DEFAULT_KEY_LENGTHS;
+        }
+
+        final String[] items = hint.split(",");
+        final int[] keyLengths = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            keyLengths[i] = Integer.parseInt(items[i].trim());
+
+            if (keyLengths[i] < 2 || keyLengths[i] > MAX_KEY_LENGTH) {
+                throw new IllegalArgumentException("Key length must be "
+                        + "between 2 and " + MAX_KEY_LENGTH + ".");
+            }
+        }
+
+        return keyLengths;
+    }
+
+    /**
+     * Parses the deadline of a request. A deadline that has already passed
+     * is rejected, since the request could never be solved in time.
+     * 
+     * @param value
+     *            Deadline in milliseconds, or <code>null</code>
+     * @return Deadline in milliseconds, at most <code>MAX_DEADLINE</code>
+     */
+    private static long parseDeadline(final String value) {
+        if (value == null) {
+            return DEFAULT_DEADLINE;
+        }
+
+        final long deadline = Long.parseLong(value.trim());
+        if (deadline <= 0) {
+            throw new IllegalArgumentException("Deadline must be positive.");
+        }
+
+        return Math.min(MAX_DEADLINE, deadline);
+    }
+
+    /**
+     * Reads the cipher text from the body of a request. White space is
+     * ignored and lower case letters are accepted.
+     * 
+     * @param exchange
+     *            Request
+     * @return Cipher text, or <code>null</code> if the body is too large
+     * @throws IOException
+     *             Error while reading
+     */
+    private static String readCipherText(final HttpExchange exchange)
+            throws IOException {
+        final InputStream in = exchange.getRequestBody();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            if (body.size() + count > MAX_BODY) {
+                return null;
+            }
+
+            body.write(buffer, 0, count);
+        }
+
+        final String text = new String(body.toByteArray(),
+                StandardCharsets.ISO_8859_1);
+        return text.replaceAll("\\s", "").toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Sends a JSON response and closes the exchange.
+     * 
+     * @param exchange
+     *            Request
+     * @param status
+     *            HTTP status
+     * @param json
+     *            Body
+     */
+    private static void respond(final HttpExchange exchange,
+            final int status, final String json) {
+        try {
+            final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type",
+                    "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+
+            final OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } catch (final IOException e) {
+            // the client is gone
+            LOG.debug("Could not send response: " + e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends an error and closes the exchange.
+     * 
+     * @param exchange
+     *            Request
+     * @param status
+     *            HTTP status
+     * @param message
+     *            Description of the error
+     */
+    private static void respondError(final HttpExchange exchange,
+            final int status, final String message) {
+        respond(exchange, status, "{\"error\":\""
+                + message.replace("\\", "\\\\").replace("\"", "\\\"") + "\"}");
+    }
+
+    /**
+     * Accepts cipher texts and queues them for the workers.
+     */
+    private class SolveHandler implements HttpHandler {
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            final long received = System.nanoTime();
+
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respondError(exchange, 405, "Post the cipher text.");
+                return;
+            }
+
+            final String cipherText;
+            final int[] keyLengths;
+            final long deadline;
+            try {
+                final Map<String, String> parameters = parseQuery(exchange);
+                keyLengths = parseKeyLengths(parameters.get("keyLength"));
+                deadline = parseDeadline(parameters.get("deadlineMs"));
+                cipherText = readCipherText(exchange);
+            } catch (final IllegalArgumentException e) {
+                respondError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            if (cipherText == null) {
+                respondError(exchange, 413, "The cipher text is longer than "
+                        + MAX_BODY + " bytes.");
+                return;
+            }
+
+            try {
+                workers.execute(new SolveTask(exchange, cipherText,
+                        keyLengths, received
+                                + TimeUnit.MILLISECONDS.toNanos(deadline)));
+            } catch (final RejectedExecutionException e) {
+                METRICS.countRejectedRequest();
+                exchange.getResponseHeaders().set("Retry-After",
+                        Integer.toString(RETRY_AFTER));
+                respondError(exchange, 429, "The queue is full.");
+            }
+        }
+    }
+
+    /**
+     * Reports the load of the workers.
+     */
+    private class HealthHandler implements HttpHandler {
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            respond(exchange, 200, "{\"status\":\"ok\",\"active\":"
+                    + workers.getActiveCount() + ",\"queued\":"
+                    + workers.getQueue().size() + ",\"remainingCapacity\":"
+                    + workers.getQueue().remainingCapacity() + "}");
+        }
+    }
+
+    /**
+     * Solves a cipher text for every key length and responds with the best
+     * result.
+     */
+    private class SolveTask implements Runnable {
+        /** Request. */
+        private final HttpExchange exchange;
+        /** Cipher text of key names. */
+        private final String cipherText;
+        /** Key lengths to try. */
+        private final int[] keyLengths;
+        /** Deadline in <code>System.nanoTime</code> time. */
+        private final long deadline;
+
+        public SolveTask(final HttpExchange exchange,
+                final String cipherText, final int[] keyLengths,
+                final long deadline) {
+            this.exchange = exchange;
+            this.cipherText = cipherText;
+            this.keyLengths = keyLengths;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            if (start >= deadline) {
+                METRICS.countExpiredRequest();
+                exchange.getResponseHeaders().set("Retry-After",
+                        Integer.toString(RETRY_AFTER));
+                respondError(exchange, 503, "The deadline passed in the "
+                        + "queue.");
+                return;
+            }
+
+            try {
+                SolveResult best = null;
+                int bestKeyLength = 0;
+
+                for (int i = 0; i < keyLengths.length; i++) {
+                    if (cipherText.length() < 2 * keyLengths[i]) {
+                        continue;
+                    }
+
+                    // share the time that is left over the key lengths
+                    final long left = (deadline - System.nanoTime())
+                            / (keyLengths.length - i);
+                    final SolveResult result = analysis.decrypt(cipherText,
+                            keyLengths[i], new Budget(Math.max(left, 1),
+                                    TimeUnit.NANOSECONDS, 0));
+
+                    if (best == null || result.getFitness() > best
+                            .getFitness()) {
+                        best = result;
+                        bestKeyLength = keyLengths[i];
+                    }
+                }
+
+                if (best == null) {
+                    respondError(exchange, 400, "The cipher text is too short "
+                            + "for the key lengths.");
+                    return;
+                }
+
+                respond(exchange, 200, String.format(Locale.ROOT,
+                        "{\"keyLength\":%d,\"plainText\":\"%s\","
+                                + "\"fitness\":%.4f,\"restarts\":%d,"
+                                + "\"evaluations\":%d,\"stopped\":%b,"
+                                + "\"millis\":%d}", bestKeyLength, best
+                                .getPlainText(), best.getFitness(), best
+                                .getRestarts(), best.getEvaluations(), best
+                                .isStopped(), TimeUnit.NANOSECONDS
+                                .toMillis(System.nanoTime() - start)));
+            } catch (final IllegalArgumentException e) {
+                respondError(exchange, 400, e.getMessage());
+            } catch (final RuntimeException e) {
+                LOG.error("Solve failed.", e);
+                respondError(exchange, 500, "The solve failed.");
+            }
+        }
+    }
+
+    /**
+     * Creates daemon threads with a name and a number.
+     */
+    private static class NamedThreadFactory implements ThreadFactory {
+        /** Prefix of the names. */
+        private final String prefix;
+        /** Number of the next thread. */
+        private final AtomicInteger next = new AtomicInteger(1);
+
+        public NamedThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, prefix + "-"
+                    + next.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
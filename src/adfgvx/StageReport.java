@@ -0,0 +1,237 @@
+package adfgvx;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the latency and correctness of every stage of
+ * <code>Analysis.doAnalysis</code> per operating point, a key length and a
+ * text length. The stages are the levels of the analysis: 1 is the
+ * identification of rows and columns, 2 the order of the transposition and 3
+ * the monoalphabetic substitution. A stage is only timed when the stages
+ * before it were correct.
+ * 
+ * The last row of the grid is not full when twice the text length is not a
+ * multiple of the key length. Every line gives the number of symbols in the
+ * last row, 0 for a full grid, so that full and ragged grids can be told
+ * apart.
+ * 
+ * The report can be written as CSV or as JSON lines, with one line per
+ * operating point and stage. Trials can record from many threads at once.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Analysis#doAnalysis(String, int, java.util.Random, int, int,
+ *      StageReport)
+ */
+public class StageReport {
+    /** Number of stages. */
+    public static final int STAGES = 3;
+    /** Name of every stage, by level. */
+    private static final String[] STAGE_NAMES = { null, "grouping",
+            "transposition", "substitution" };
+    /** Header of the CSV report. */
+    private static final String CSV_HEADER = "key_length,text_length,"
+            + "last_row,stage,trials,attempts,correct,accuracy,mean_ms,"
+            + "median_ms,p99_ms,max_ms";
+
+    /** Statistics of every operating point, ordered by key and text length. */
+    private final ConcurrentSkipListMap<Long, Point> points =
+            new ConcurrentSkipListMap<Long, Point>();
+
+    /**
+     * Gets the statistics of an operating point, and creates them if needed.
+     * 
+     * @param keyLength
+     *            Length of the transposition key
+     * @param textLength
+     *            Number of plain text characters
+     * @return Statistics
+     */
+    private Point getPoint(final int keyLength, final int textLength) {
+        final Long key = ((long) keyLength << 32) | textLength;
+        Point point = points.get(key);
+
+        if (point == null) {
+            final Point created = new Point(keyLength, textLength);
+            point = points.putIfAbsent(key, created);
+            if (point == null) {
+                point = created;
+            }
+        }
+
+        return point;
+    }
+
+    /**
+     * Records the start of a trial.
+     * 
+     * @param keyLength
+     *            Length of the transposition key
+     * @param textLength
+     *            Number of plain text characters
+     */
+    public void recordTrial(final int keyLength, final int textLength) {
+        getPoint(keyLength, textLength).trials.increment();
+    }
+
+    /**
+     * Records a stage of a trial.
+     * 
+     * @param keyLength
+     *            Length of the transposition key
+     * @param textLength
+     *            Number of plain text characters
+     * @param stage
+     *            Level of the stage, from 1 to <code>STAGES</code>
+     * @param nanos
+     *            Duration of the stage in nanoseconds
+     * @param correct
+     *            True if the stage was correct
+     */
+    public void recordStage(final int keyLength, final int textLength,
+            final int stage, final long nanos, final boolean correct) {
+        final Point point = getPoint(keyLength, textLength);
+        point.latency[stage].record(nanos);
+        if (correct) {
+            point.correct[stage].increment();
+        }
+    }
+
+    /**
+     * Writes the report to a file. A name that ends in <code>.jsonl</code> or
+     * <code>.json</code> gives JSON lines, any other name gives CSV.
+     * 
+     * @param filename
+     *            Name of the output file
+     * @throws IOException
+     *             Error while writing
+     */
+    public void write(final String filename) throws IOException {
+        final PrintWriter out = new PrintWriter(new FileWriter(filename));
+        try {
+            if (filename.endsWith(".jsonl") || filename.endsWith(".json")) {
+                writeJsonLines(out);
+            } else {
+                writeCsv(out);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (out.checkError()) {
+            throw new IOException("Could not write the report to "
+                    + filename + ".");
+        }
+    }
+
+    /**
+     * Writes the report as CSV with a header.
+     * 
+     * @param out
+     *            Output
+     */
+    public void writeCsv(final PrintWriter out) {
+        out.println(CSV_HEADER);
+
+        for (final Point point : points.values()) {
+            for (int stage = 1; stage <= STAGES; stage++) {
+                final LatencyHistogram.Snapshot latency = point.latency[stage]
+                        .snapshot();
+                out.println(String.format(Locale.ROOT,
+                        "%d,%d,%d,%s,%d,%d,%d,%.4f,%.3f,%.3f,%.3f,%.3f",
+                        point.keyLength, point.textLength, point.getLastRow(),
+                        STAGE_NAMES[stage], point.trials.sum(),
+                        latency.getCount(), point.correct[stage].sum(),
+                        point.getAccuracy(stage), latency.getMeanMillis(),
+                        latency.getMedianMillis(), latency.getP99Millis(),
+                        latency.getMaxMillis()));
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Writes the report as JSON lines, one object per line.
+     * 
+     * @param out
+     *            Output
+     */
+    public void writeJsonLines(final PrintWriter out) {
+        for (final Point point : points.values()) {
+            for (int stage = 1; stage <= STAGES; stage++) {
+                final LatencyHistogram.Snapshot latency = point.latency[stage]
+                        .snapshot();
+                out.println(String.format(Locale.ROOT,
+                        "{\"keyLength\":%d,\"textLength\":%d,\"lastRow\":%d,"
+                                + "\"stage\":\"%s\",\"level\":%d,\"trials\":%d,"
+                                + "\"attempts\":%d,\"correct\":%d,"
+                                + "\"accuracy\":%.4f,\"meanMs\":%.3f,"
+                                + "\"medianMs\":%.3f,\"p99Ms\":%.3f,"
+                                + "\"maxMs\":%.3f}", point.keyLength,
+                        point.textLength, point.getLastRow(),
+                        STAGE_NAMES[stage], stage,
+                        point.trials.sum(), latency.getCount(),
+                        point.correct[stage].sum(), point.getAccuracy(stage),
+                        latency.getMeanMillis(), latency.getMedianMillis(),
+                        latency.getP99Millis(), latency.getMaxMillis()));
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Statistics of an operating point.
+     */
+    private static class Point {
+        /** Length of the transposition key. */
+        private final int keyLength;
+        /** Number of plain text characters. */
+        private final int textLength;
+        /** Number of trials. */
+        private final LongAdder trials = new LongAdder();
+        /** Latency of every stage, by level. */
+        private final LatencyHistogram[] latency =
+                new LatencyHistogram[STAGES + 1];
+        /** Number of correct results of every stage, by level. */
+        private final LongAdder[] correct = new LongAdder[STAGES + 1];
+
+        public Point(final int keyLength, final int textLength) {
+            this.keyLength = keyLength;
+            this.textLength = textLength;
+
+            for (int i = 1; i <= STAGES; i++) {
+                latency[i] = new LatencyHistogram();
+                correct[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Gets the number of symbols in the last row of the grid. Every
+         * character of the text is fractioned into two symbols.
+         * 
+         * @return Number of symbols, 0 if the grid is full
+         */
+        public int getLastRow() {
+            return 2 * textLength % keyLength;
+        }
+
+        /**
+         * Gets the fraction of the trials that were correct up to a stage.
+         * 
+         * @param stage
+         *            Level of the stage
+         * @return Accuracy between 0 and 1
+         */
+        public double getAccuracy(final int stage) {
+            final long count = trials.sum();
+            return count == 0 ? 0 : correct[stage].sum() / (double) count;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package adfgvx;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A monoalphabetic substitution over the symbols of <code>plainAlphabet</code>.
+ * Symbols are represented by their index in the alphabet, so that applying
+ * and changing a substitution does not allocate.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Encryption#plainAlphabet
+ */
+public class Substitution {
+    /** Plain symbol for every cipher symbol. */
+    private final int[] key;
+
+    /**
+     * Creates the identity substitution.
+     * 
+     * @param size
+     *            Number of symbols in the alphabet
+     */
+    public Substitution(final int size) {
+        key = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            key[i] = i;
+        }
+    }
+
+    /**
+     * Creates a copy of a substitution.
+     * 
+     * @param other
+     *            Substitution to copy
+     */
+    public Substitution(final Substitution other) {
+        key = other.key.clone();
+    }
+
+    /**
+     * Creates a substitution from an alphabet map. Symbols that are missing
+     * from the map are mapped to themselves.
+     * 
+     * @param alphabet
+     *            Alphabet from cipher text to plain text
+     * @return Substitution
+     */
+    public static Substitution fromMap(
+            final Map<Character, Character> alphabet) {
+        final Substitution substitution = new Substitution(
+                Encryption.plainAlphabet.length());
+
+        for (int i = 0; i < substitution.size(); i++) {
+            final Character plain = alphabet.get(Encryption.plainAlphabet
+                    .charAt(i));
+
+            if (plain != null) {
+                substitution.key[i] = Encryption.plainAlphabet.indexOf(plain);
+            }
+        }
+
+        return substitution;
+    }
+
+    /**
+     * Generates a random substitution.
+     * 
+     * @param random
+     *            Random number generator
+     * @return Random substitution
+     */
+    public static Substitution random(final Random random) {
+        final Substitution substitution = new Substitution(
+                Encryption.plainAlphabet.length());
+        substitution.shuffle(random);
+        return substitution;
+    }
+
+    /**
+     * Shuffles the substitution in place.
+     * 
+     * @param random
+     *            Random number generator
+     */
+    public void shuffle(final Random random) {
+        for (int i = key.length - 1; i > 0; i--) {
+            swap(i, random.nextInt(i + 1));
+        }
+    }
+
+    /**
+     * Converts the substitution to an alphabet map.
+     * 
+     * @return Alphabet from cipher text to plain text
+     */
+    public Map<Character, Character> toMap() {
+        final Map<Character, Character> alphabet = new HashMap<Character, Character>();
+        writeTo(alphabet);
+        return alphabet;
+    }
+
+    /**
+     * Writes the substitution to an alphabet map.
+     * 
+     * @param alphabet
+     *            Alphabet from cipher text to plain text to overwrite
+     */
+    public void writeTo(final Map<Character, Character> alphabet) {
+        for (int i = 0; i < key.length; i++) {
+            alphabet.put(Encryption.plainAlphabet.charAt(i),
+                    Encryption.plainAlphabet.charAt(key[i]));
+        }
+    }
+
+    /**
+     * Gets the plain symbol of a cipher symbol.
+     * 
+     * @param symbol
+     *            Index of the cipher symbol
+     * @return Index of the plain symbol
+     */
+    public int get(final int symbol) {
+        return key[symbol];
+    }
+
+    /**
+     * Swaps the plain symbols of two cipher symbols.
+     * 
+     * @param a
+     *            Index of the first cipher symbol
+     * @param b
+     *            Index of the second cipher symbol
+     */
+    public void swap(final int a, final int b) {
+        final int tmp = key[a];
+        key[a] = key[b];
+        key[b] = tmp;
+    }
+
+    /**
+     * Overwrites this substitution with another one.
+     * 
+     * @param other
+     *            Substitution to copy
+     */
+    public void set(final Substitution other) {
+        System.arraycopy(other.key, 0, key, 0, key.length);
+    }
+
+    /**
+     * Gets the number of symbols in the alphabet.
+     * 
+     * @return Alphabet size
+     */
+    public int size() {
+        return key.length;
+    }
+}
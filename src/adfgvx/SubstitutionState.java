@@ -0,0 +1,349 @@
+package adfgvx;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The state of a monoalphabetic substitution solver. It keeps the tetragram
+ * counts of the transcribed text and an index of the tetragrams every cipher
+ * symbol appears in, so that swapping two symbols of the alphabet only
+ * rescores the tetragrams that contain them. The counts are kept in a hash
+ * table sized to the text, so a state is small enough to create per restart.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Tetragram
+ */
+public class SubstitutionState {
+    /** Metrics. */
+    private static final Metrics METRICS = Metrics.getInstance();
+
+    /** Reference tetragram table. */
+    private final Tetragram tetragram;
+    /** Number of symbols in the alphabet. */
+    private final int alphabetSize;
+    /** Cipher text as indices in <code>plainAlphabet</code>. */
+    private final byte[] text;
+    /** Substitution from a cipher symbol to a plain symbol. */
+    private final Substitution key;
+    /** Code of the transcribed tetragram that starts at each position. */
+    private final int[] windows;
+    /** Slot in <code>counts</code> of the code of each position. */
+    private final int[] windowSlots;
+    /** Sorted start positions of the tetragrams that contain each symbol. */
+    private final int[][] windowsBySymbol;
+    /** Number of appearances of each transcribed tetragram code. */
+    private final CountTable counts;
+    /** Contribution of a tetragram to the fitness by its count. */
+    private final ContributionTable contributions;
+
+    /** Current fitness. */
+    private double fitness;
+
+    /** Start positions of the tetragrams changed by the last swap. */
+    private final int[] changed;
+    /** Codes of the changed tetragrams before the last swap. */
+    private final int[] oldCodes;
+    /** Slots of the changed tetragrams before the last swap. */
+    private final int[] oldSlots;
+    /** Number of tetragrams changed by the last swap. */
+    private int changedCount;
+    /** Symbols of the last swap. */
+    private int lastA = -1, lastB = -1;
+    /** Fitness before the last swap. */
+    private double lastFitness;
+
+    /**
+     * Creates a new solver state.
+     * 
+     * @param tetragram
+     *            Reference tetragram table
+     * @param cipherText
+     *            Cipher text, consisting of symbols of
+     *            <code>plainAlphabet</code>
+     * @param alphabet
+     *            Alphabet from cipher text to plain text
+     */
+    public SubstitutionState(final Tetragram tetragram,
+            final String cipherText, final Map<Character, Character> alphabet) {
+        this(tetragram, Encryption.toSymbols(cipherText), Substitution
+                .fromMap(alphabet));
+    }
+
+    /**
+     * Creates a new solver state.
+     * 
+     * @param tetragram
+     *            Reference tetragram table
+     * @param cipherText
+     *            Cipher text as indices in <code>plainAlphabet</code>
+     * @param substitution
+     *            Substitution from cipher text to plain text, which is copied
+     */
+    public SubstitutionState(final Tetragram tetragram,
+            final byte[] cipherText, final Substitution substitution) {
+        this.tetragram = tetragram;
+        alphabetSize = tetragram.getAlphabetSize();
+        text = cipherText;
+        key = new Substitution(substitution);
+
+        windows = new int[text.length - Tetragram.TETRAGRAM_LENGTH + 1];
+        windowSlots = new int[windows.length];
+        windowsBySymbol = indexWindows();
+
+        int maxChanged = 0;
+        for (int i = 0; i < alphabetSize; i++) {
+            for (int j = i + 1; j < alphabetSize; j++) {
+                maxChanged = Math.max(maxChanged, windowsBySymbol[i].length
+                        + windowsBySymbol[j].length);
+            }
+        }
+
+        changed = new int[maxChanged];
+        oldCodes = new int[maxChanged];
+        oldSlots = new int[maxChanged];
+        counts = new CountTable(windows.length);
+
+        contributions = tetragram.getContributionTable(null, windows.length);
+
+        count();
+    }
+
+    /**
+     * Starts over from a different substitution. The index and the tables of
+     * the state are reused.
+     * 
+     * @param substitution
+     *            Substitution from cipher text to plain text, which is copied
+     */
+    public void reset(final Substitution substitution) {
+        counts.clear();
+        key.set(substitution);
+        lastA = lastB = -1;
+        count();
+    }
+
+    /**
+     * Counts the transcribed tetragrams and calculates the fitness.
+     */
+    private void count() {
+        METRICS.countFitness();
+        fitness = 0;
+
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = transcribe(i);
+            windowSlots[i] = counts.slot(windows[i]);
+            final int count = counts.increment(windowSlots[i]);
+            fitness += contribution(windows[i], count + 1)
+                    - contribution(windows[i], count);
+        }
+    }
+
+    /**
+     * Counts the current tetragrams again in an empty table, which drops the
+     * codes that no longer appear. The fitness does not change.
+     */
+    private void recount() {
+        counts.clear();
+
+        for (int i = 0; i < windows.length; i++) {
+            windowSlots[i] = counts.slot(windows[i]);
+            counts.increment(windowSlots[i]);
+        }
+    }
+
+    /**
+     * Builds an index of the tetragrams each cipher symbol appears in.
+     * 
+     * @return Sorted start positions of the tetragrams per symbol
+     */
+    private int[][] indexWindows() {
+        final int[] sizes = new int[alphabetSize];
+        final int[] last = new int[alphabetSize];
+        Arrays.fill(last, -1);
+
+        for (int w = 0; w < windows.length; w++) {
+            for (int j = 0; j < Tetragram.TETRAGRAM_LENGTH; j++) {
+                final int symbol = text[w + j];
+                if (last[symbol] != w) {
+                    last[symbol] = w;
+                    sizes[symbol]++;
+                }
+            }
+        }
+
+        final int[][] index = new int[alphabetSize][];
+        for (int i = 0; i < alphabetSize; i++) {
+            index[i] = new int[sizes[i]];
+        }
+
+        Arrays.fill(sizes, 0);
+        Arrays.fill(last, -1);
+
+        for (int w = 0; w < windows.length; w++) {
+            for (int j = 0; j < Tetragram.TETRAGRAM_LENGTH; j++) {
+                final int symbol = text[w + j];
+                if (last[symbol] != w) {
+                    last[symbol] = w;
+                    index[symbol][sizes[symbol]++] = w;
+                }
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Transcribes the tetragram at a position using the current key.
+     * 
+     * @param position
+     *            Start position of the tetragram
+     * @return Code of the transcribed tetragram
+     */
+    private int transcribe(final int position) {
+        int code = 0;
+
+        for (int j = 0; j < Tetragram.TETRAGRAM_LENGTH; j++) {
+            code = code * alphabetSize + key.get(text[position + j]);
+        }
+
+        return code;
+    }
+
+    /**
+     * Calculates the contribution of a transcribed tetragram to the fitness.
+     * 
+     * @param code
+     *            Code of the tetragram
+     * @param count
+     *            Number of appearances of the tetragram
+     * @return Contribution to the fitness
+     */
+    private double contribution(final int code, final int count) {
+        return contributions.get(tetragram.getLogFrequency(code), count);
+    }
+
+    /**
+     * Swaps the plain text symbols that two cipher symbols map to, and updates
+     * the fitness accordingly. Only the tetragrams that contain either symbol
+     * are rescored.
+     * 
+     * @param a
+     *            Index of the first cipher symbol
+     * @param b
+     *            Index of the second cipher symbol
+     * @return The new fitness
+     */
+    public double swap(final int a, final int b) {
+        lastA = a;
+        lastB = b;
+        lastFitness = fitness;
+
+        if (counts.isCrowded(changed.length)) {
+            recount();
+        }
+
+        // merge the sorted window lists of both symbols
+        final int[] windowsA = windowsBySymbol[a];
+        final int[] windowsB = windowsBySymbol[b];
+        changedCount = 0;
+        int i = 0, j = 0;
+        while (i < windowsA.length || j < windowsB.length) {
+            final int w;
+            if (j == windowsB.length
+                    || (i < windowsA.length && windowsA[i] < windowsB[j])) {
+                w = windowsA[i++];
+            } else if (i == windowsA.length || windowsB[j] < windowsA[i]) {
+                w = windowsB[j++];
+            } else {
+                w = windowsA[i++];
+                j++;
+            }
+
+            changed[changedCount] = w;
+            oldCodes[changedCount] = windows[w];
+            oldSlots[changedCount] = windowSlots[w];
+            changedCount++;
+        }
+
+        key.swap(a, b);
+
+        double delta = 0;
+        for (int k = 0; k < changedCount; k++) {
+            final int w = changed[k];
+            windows[w] = transcribe(w);
+
+            final int oldCount = counts.decrement(oldSlots[k]);
+            delta += contribution(oldCodes[k], oldCount - 1)
+                    - contribution(oldCodes[k], oldCount);
+
+            windowSlots[w] = counts.slot(windows[w]);
+            final int newCount = counts.increment(windowSlots[w]);
+            delta += contribution(windows[w], newCount + 1)
+                    - contribution(windows[w], newCount);
+        }
+
+        fitness += delta;
+        return fitness;
+    }
+
+    /**
+     * Undoes the last swap.
+     */
+    public void rollback() {
+        if (lastA < 0) {
+            return;
+        }
+
+        key.swap(lastA, lastB);
+
+        // the old codes kept their slots, even if their count dropped to 0
+        for (int k = 0; k < changedCount; k++) {
+            final int w = changed[k];
+            counts.decrement(windowSlots[w]);
+            counts.increment(oldSlots[k]);
+            windows[w] = oldCodes[k];
+            windowSlots[w] = oldSlots[k];
+        }
+
+        fitness = lastFitness;
+        lastA = lastB = -1;
+    }
+
+    /**
+     * Gets the current fitness.
+     * 
+     * @return Fitness
+     */
+    public double getFitness() {
+        return fitness;
+    }
+
+    /**
+     * Gets the number of symbols in the alphabet.
+     * 
+     * @return Alphabet size
+     */
+    public int getAlphabetSize() {
+        return alphabetSize;
+    }
+
+    /**
+     * Gets the current substitution. It changes with every swap.
+     * 
+     * @return Substitution from cipher text to plain text
+     */
+    public Substitution getSubstitution() {
+        return key;
+    }
+
+    /**
+     * Writes the current substitution to an alphabet map.
+     * 
+     * @param alphabet
+     *            Alphabet from cipher text to plain text to overwrite
+     */
+    public void writeAlphabet(final Map<Character, Character> alphabet) {
+        key.writeTo(alphabet);
+    }
+}
@@ -1,13 +1,12 @@
 package adfgvx;
 
 import gnu.trove.TLongDoubleHashMap;
-import gnu.trove.TLongIntHashMap;
-import gnu.trove.TLongIntIterator;
 
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -25,8 +24,43 @@ import utils.Utils;
 public class Tetragram {
     /** Logger. */
     private static final Logger LOG = Logger.getLogger(Tetragram.class);
-    /** Table of log tetragram frequencies. */
-    private final TLongDoubleHashMap tetragrams;
+    /** Metrics. */
+    private static final Metrics METRICS = Metrics.getInstance();
+    /** Number of symbols in a tetragram. */
+    static final int TETRAGRAM_LENGTH = 4;
+    /** Variance of the log frequency of a tetragram. */
+    private static final double SIGMA_SQUARED = 4.0;
+    /** Table of log tetragram frequencies, used for foreign alphabets. */
+    private TLongDoubleHashMap tetragrams;
+    /**
+     * Table of log tetragram frequencies over <code>plainAlphabet</code>. It
+     * is <code>null</code> when the reference table contains symbols outside
+     * that alphabet.
+     */
+    private NGramTable table;
+    /** Maps a character to its index in the alphabet, or -1. */
+    private final int[] symbolIndex;
+    /** Number of symbols in the alphabet of the dense table. */
+    private final int alphabetSize;
+    /** True if contributions are calculated instead of looked up. */
+    private volatile boolean exactScoring = false;
+    /** Per-thread buffers for scoring a text. */
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Buffers that are reused when scoring texts on the same thread.
+     */
+    private static class Scratch {
+        /** Tetragram codes of a text. */
+        private int[] codes = new int[0];
+        /** Contribution table of the last scored text length. */
+        private ContributionTable contributions;
+    }
 
     /**
      * Creates an instance of tetragram, which contains a reference frequency
@@ -38,8 +72,118 @@ public class Tetragram {
      *             Read error
      */
     public Tetragram(final String filename) throws IOException {
+        alphabetSize = Encryption.plainAlphabet.length();
+        symbolIndex = createSymbolIndex(Encryption.plainAlphabet);
         tetragrams = new TLongDoubleHashMap();
-        readTetragrams(filename);
+
+        if (NGramTable.isTableFile(filename)) {
+            openTable(filename);
+        } else {
+            readTetragrams(filename);
+        }
+    }
+
+    /**
+     * Creates an instance of tetragram with a table over
+     * <code>plainAlphabet</code>.
+     * 
+     * @param table
+     *            Reference frequency table
+     */
+    private Tetragram(final NGramTable table) {
+        alphabetSize = Encryption.plainAlphabet.length();
+        symbolIndex = createSymbolIndex(Encryption.plainAlphabet);
+        this.table = table;
+    }
+
+    /**
+     * Creates a copy of this instance with quantized reference frequencies.
+     * A 16-bit table takes a quarter and an 8-bit table an eighth of the
+     * memory of the double table, so that more of it stays in the cache.
+     * 
+     * @param valueType
+     *            <code>NGramTable.VALUE_SHORT</code> or
+     *            <code>NGramTable.VALUE_BYTE</code>
+     * @return Tetragram with the quantized table
+     */
+    public Tetragram quantize(final int valueType) {
+        if (table == null) {
+            throw new IllegalStateException("The reference table contains "
+                    + "symbols outside the plain alphabet.");
+        }
+
+        final Tetragram quantized = new Tetragram(table.quantize(valueType));
+        quantized.exactScoring = exactScoring;
+        return quantized;
+    }
+
+    /**
+     * Uses a table file as reference frequency table. The file is mapped into
+     * memory, unless its alphabet differs from <code>plainAlphabet</code>.
+     * 
+     * @param filename
+     *            Filename of the table
+     * @throws IOException
+     *             Read error or invalid file
+     */
+    private void openTable(final String filename) throws IOException {
+        final NGramTable mapped = NGramTable.open(filename);
+
+        if (mapped.getLength() != TETRAGRAM_LENGTH) {
+            throw new IOException(filename + " does not contain tetragrams.");
+        }
+
+        if (mapped.getAlphabet().equals(Encryption.plainAlphabet)) {
+            table = mapped;
+            tetragrams = null;
+            return;
+        }
+
+        LOG.info("Table alphabet differs from the plain alphabet, "
+                + "copying the table.");
+
+        final String alphabet = mapped.getAlphabet();
+        for (int i = 0; i < mapped.getEntryCount(); i++) {
+            if (mapped.getValue(i) == 0) {
+                continue;
+            }
+
+            long tetragram = 0;
+            int code = mapped.getCode(i);
+            for (int j = 0; j < TETRAGRAM_LENGTH; j++) {
+                final long c = alphabet.charAt(code % alphabet.length());
+                tetragram |= c << (16 * j);
+                code /= alphabet.length();
+            }
+
+            tetragrams.put(tetragram, mapped.getValue(i));
+        }
+
+        createDenseTable();
+    }
+
+    /**
+     * Creates a lookup table from a character to its index in the alphabet.
+     * 
+     * @param alphabet
+     *            Alphabet
+     * @return Table that maps each character to its index, or -1 if the
+     *         character is not in the alphabet
+     */
+    private static int[] createSymbolIndex(final String alphabet) {
+        char highest = 0;
+        for (int i = 0; i < alphabet.length(); i++) {
+            highest = (char) Math.max(highest, alphabet.charAt(i));
+        }
+
+        final int[] index = new int[highest + 1];
+        Arrays.fill(index, -1);
+
+        for (int i = 0; i < alphabet.length(); i++) {
+            index[alphabet.charAt(i)] = i;
+        }
+
+        return index;
     }
 
     /**
@@ -56,6 +200,11 @@ public class Tetragram {
 
         final int size = in.readInt();
 
+        if (tetragrams == null) {
+            tetragrams = toHashTable(table);
+            table = null;
+        }
+
         for (int i = 0; i < size; i++) {
             long tet = in.readLong();
             tetragrams.put(tet, in.readDouble());
@@ -64,6 +213,126 @@ public class Tetragram {
         LOG.info("tetragrams read.");
 
         in.close();
+
+        createDenseTable();
+    }
+
+    /**
+     * Moves the hashed table to a dense table if every tetragram consists of
+     * symbols from <code>plainAlphabet</code>. Otherwise, the hashed table is
+     * kept.
+     */
+    private void createDenseTable() {
+        final long[] keys = tetragrams.keys();
+
+        for (final long key : keys) {
+            if (getDenseIndex(key) < 0) {
+                LOG.info("Tetragrams are not in the plain alphabet, "
+                        + "using hashed table.");
+                return;
+            }
+        }
+
+        final double[] values = new double[NGramTable.getCodeCount(
+                alphabetSize, TETRAGRAM_LENGTH)];
+
+        for (final long key : keys) {
+            values[getDenseIndex(key)] = tetragrams.get(key);
+        }
+
+        table = NGramTable.dense(Encryption.plainAlphabet, TETRAGRAM_LENGTH,
+                values);
+        tetragrams = null;
+    }
+
+    /**
+     * Converts a table over <code>plainAlphabet</code> back to a hashed table.
+     * 
+     * @param codeTable
+     *            Table over <code>plainAlphabet</code>
+     * @return Hashed table with all non-zero entries
+     */
+    private TLongDoubleHashMap toHashTable(final NGramTable codeTable) {
+        final TLongDoubleHashMap hashed = new TLongDoubleHashMap();
+
+        for (int i = 0; i < codeTable.getEntryCount(); i++) {
+            if (codeTable.getValue(i) != 0) {
+                hashed.put(toPackedTetragram(codeTable.getCode(i)),
+                        codeTable.getValue(i));
+            }
+        }
+
+        return hashed;
+    }
+
+    /**
+     * Converts the code of a tetragram to four 16-bit characters packed in a
+     * long.
+     * 
+     * @param code
+     *            Base-N code of the tetragram over <code>plainAlphabet</code>
+     * @return Packed tetragram
+     */
+    private long toPackedTetragram(final int code) {
+        long tetragram = 0;
+        int rest = code;
+
+        for (int j = 0; j < TETRAGRAM_LENGTH; j++) {
+            final long c = Encryption.plainAlphabet.charAt(rest % alphabetSize);
+            tetragram |= c << (16 * j);
+            rest /= alphabetSize;
+        }
+
+        return tetragram;
+    }
+
+    /**
+     * Calculates the index of a tetragram in the dense table.
+     * 
+     * @param tetragram
+     *            Tetragram of four 16-bit characters packed in a long
+     * @return Index in the dense table or -1 if a symbol is not in the
+     *         alphabet
+     */
+    private int getDenseIndex(final long tetragram) {
+        int code = 0;
+
+        for (int shift = 48; shift >= 0; shift -= 16) {
+            final int c = (int) (tetragram >>> shift) & 0xFFFF;
+
+            if (c >= symbolIndex.length || symbolIndex[c] < 0) {
+                return -1;
+            }
+
+            code = code * alphabetSize + symbolIndex[c];
+        }
+
+        return code;
+    }
+
+    /**
+     * Gets the reference log frequency of a tetragram.
+     * 
+     * @param code
+     *            Base-N code of the tetragram over <code>plainAlphabet</code>
+     * @return Log frequency, or 0 if the tetragram is unknown
+     */
+    double getLogFrequency(final int code) {
+        if (table != null) {
+            return table.getLogFrequency(code);
+        }
+
+        return tetragrams.get(toPackedTetragram(code));
+    }
+
+    /**
+     * Gets the number of symbols in the alphabet that tetragram codes are
+     * expressed in.
+     * 
+     * @return Alphabet size
+     */
+    int getAlphabetSize() {
+        return alphabetSize;
     }
 
     /**
@@ -77,64 +346,113 @@ public class Tetragram {
      */
     public double fitness(final String cipherText,
             final Map<Character, Character> alphabet) {
-        final String newText = Encryption.transcribeCipherText(cipherText,
-                alphabet);
-
-        final TLongIntHashMap ciphertetragrams = getTetragramCount(newText);
+        return fitness(Encryption.toSymbols(cipherText),
+                Substitution.fromMap(alphabet));
+    }
 
-        double fitness = 0;
-        final double sigmaSquared = 4.0;
+    /**
+     * Calculates the fitness of a certain substitution of text. Apart from
+     * growing a per-thread buffer for longer texts, no objects are allocated.
+     * 
+     * @param cipherText
+     *            Cipher text as indices in <code>plainAlphabet</code>
+     * @param substitution
+     *            Substitution from cipher text to a certain solution
+     * @return Fitness expressed as a number
+     */
+    public double fitness(final byte[] cipherText,
+            final Substitution substitution) {
+        METRICS.countFitness();
+        final int windowCount = cipherText.length - TETRAGRAM_LENGTH + 1;
 
-        for (TLongIntIterator it = ciphertetragrams.iterator(); it.hasNext();) {
-            it.advance();
-            fitness += getContributionToFitness(it.key(), it.value(), newText,
-                    sigmaSquared);
+        final Scratch buffers = scratch.get();
+        if (buffers.codes.length < windowCount) {
+            buffers.codes = new int[windowCount];
         }
 
-        return fitness;
-    }
+        final ContributionTable contributions = getContributionTable(
+                buffers.contributions, windowCount);
+        buffers.contributions = contributions;
+        final int[] codes = buffers.codes;
 
-    private double getContributionToFitness(final long tetragram,
-            final int count, final String text, final double sigmaSquared) {
-        double sourceLogFreq = tetragrams.get(tetragram);
+        for (int i = 0; i < windowCount; i++) {
+            int code = 0;
+            for (int j = 0; j < TETRAGRAM_LENGTH; j++) {
+                code = code * alphabetSize
+                        + substitution.get(cipherText[i + j]);
+            }
 
-        // NOTE: this makes the convergence much slower!
-        if (sourceLogFreq == 0) {
-            return 0.0;
+            codes[i] = code;
         }
 
-        final double logFreq = Math.log((double) count
-                / (double) (text.length() - 3));
+        Arrays.sort(codes, 0, windowCount);
 
-        /* TODO: check if the factor in front of the exp is required. */
-        final double exponent = -(logFreq - sourceLogFreq)
-                * (logFreq - sourceLogFreq) / (2.0 * sigmaSquared);
+        double fitness = 0;
+        int count = 1;
+        for (int i = 1; i <= windowCount; i++) {
+            if (i < windowCount && codes[i] == codes[i - 1]) {
+                count++;
+            } else {
+                fitness += contributions.get(getLogFrequency(codes[i - 1]),
+                        count);
+                count = 1;
+            }
+        }
 
-        return 1.0 / Math.sqrt(2 * Math.PI * sigmaSquared)
-                * Utils.exp(exponent);
+        return fitness;
     }
 
     /**
-     * Counts the appearance of a tetragram in a text.
+     * Gets the table with the contributions of tetragrams for a text. The
+     * previous table is reused if it fits.
      * 
-     * @param text
-     *            Text to scan
-     * @return Map of number of appearances of each tetragram
+     * @param previous
+     *            Previous table, or <code>null</code>
+     * @param windowCount
+     *            Number of tetragrams in the text
+     * @return Contribution table
      */
-    private TLongIntHashMap getTetragramCount(final String text) {
-        final TLongIntHashMap ciphertetragrams = new TLongIntHashMap();
-
-        char[] c = text.toCharArray();
-        long tetragram = ((long) c[0] << 48) | (((long) c[1]) << 32)
-                | (((long) c[2]) << 16) | (c[3]);
+    ContributionTable getContributionTable(final ContributionTable previous,
+            final int windowCount) {
+        if (previous != null && previous.getWindowCount() == windowCount
+                && previous.isExact() == exactScoring) {
+            return previous;
+        }
 
-        for (int i = 4, last = text.length(); i < last; i++) {
+        return new ContributionTable(this, windowCount, exactScoring);
+    }
 
-            tetragram = (tetragram << 16) | (c[i]);
+    /**
+     * Sets how the contribution of a tetragram to the fitness is determined.
+     * By default, the Gaussian term is looked up in a table that is quantized
+     * in steps of 1/256 in the log frequency. For English text, the fitness
+     * differs from the calculated one by less than a tenth of a percent.
+     * 
+     * @param exact
+     *            True to calculate every contribution, false to look up the
+     *            Gaussian term
+     */
+    public void setExactScoring(final boolean exact) {
+        exactScoring = exact;
+    }
 
-            ciphertetragrams.adjustOrPutValue(tetragram, 1, 1);
-        }
+    /**
+     * Calculates the contribution of a single tetragram to the fitness from
+     * its log frequency in the text.
+     * 
+     * @param sourceLogFreq
+     *            Log frequency of the tetragram in the reference text
+     * @param logFreq
+     *            Log frequency of the tetragram in the text
+     * @return Contribution to the fitness
+     */
+    double getContributionToFitness(final double sourceLogFreq,
+            final double logFreq) {
+        /* TODO: check if the factor in front of the exp is required. */
+        final double exponent = -(logFreq - sourceLogFreq)
+                * (logFreq - sourceLogFreq) / (2.0 * SIGMA_SQUARED);
 
-        return ciphertetragrams;
+        return 1.0 / Math.sqrt(2 * Math.PI * SIGMA_SQUARED)
+                * Utils.exp(exponent);
     }
 }
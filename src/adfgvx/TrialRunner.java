@@ -0,0 +1,299 @@
+package adfgvx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Runs many trials of <code>Analysis.doAnalysis</code> in parallel to measure
+ * its accuracy. Every worker has its own stream of random numbers, split from
+ * a master seed, and the successes of every level are counted in shared
+ * adders.
+ * 
+ * @author Ben Ruijl
+ * 
+ * @see Analysis#doAnalysis(String, int, Random)
+ */
+public class TrialRunner {
+    /** Logger. */
+    private static final Logger LOG = Logger.getLogger(TrialRunner.class);
+
+    /** Deepest level of an analysis. */
+    private static final int MAX_LEVEL = 3;
+
+    /** Analyzer that runs the trials. */
+    private final Analysis analysis;
+    /** Number of workers. */
+    private final int threads;
+
+    /**
+     * Creates a new trial runner.
+     * 
+     * @param analysis
+     *            Analyzer that runs the trials
+     * @param threads
+     *            Number of workers
+     */
+    public TrialRunner(final Analysis analysis, final int threads) {
+        this.analysis = analysis;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Runs trials and logs a summary.
+     * 
+     * @param text
+     *            Source text
+     * @param trials
+     *            Number of trials
+     * @param testLevel
+     *            How far to go in the check of every trial
+     * @param seed
+     *            Master seed of the random number streams
+     * @return Summary of the trials
+     */
+    public Summary run(final String text, final int trials,
+            final int testLevel, final long seed) {
+        return run(text, trials, testLevel, new SplittableRandom(seed), 0, 0,
+                null);
+    }
+
+    /**
+     * Runs trials at every combination of a key length and a text length,
+     * and reports the latency and correctness of every stage. The trials go
+     * all the way, so that every stage is reached when the stages before it
+     * are correct.
+     * 
+     * @param text
+     *            Source text
+     * @param trials
+     *            Number of trials per combination
+     * @param keyLengths
+     *            Lengths of the transposition key
+     * @param textLengths
+     *            Numbers of plain text characters
+     * @param seed
+     *            Master seed of the random number streams
+     * @return Report of the stages
+     */
+    public StageReport report(final String text, final int trials,
+            final int[] keyLengths, final int[] textLengths, final long seed) {
+        final StageReport report = new StageReport();
+        final SplittableRandom master = new SplittableRandom(seed);
+
+        for (final int keyLength : keyLengths) {
+            for (final int textLength : textLengths) {
+                LOG.info("Key length " + keyLength + ", text length "
+                        + textLength + ":");
+                run(text, trials, MAX_LEVEL, master.split(), keyLength,
+                        textLength, report);
+            }
+        }
+
+        return report;
+    }
+
+    /**
+     * Runs trials and logs a summary.
+     * 
+     * @param text
+     *            Source text
+     * @param trials
+     *            Number of trials
+     * @param testLevel
+     *            How far to go in the check of every trial
+     * @param master
+     *            Stream to split the random number streams of the workers
+     *            from
+     * @param keyLength
+     *            Length of the transposition key, if there is a report
+     * @param textLength
+     *            Number of plain text characters, if there is a report
+     * @param report
+     *            Report of the stages, or <code>null</code> for a default
+     *            analysis
+     * @return Summary of the trials
+     */
+    private Summary run(final String text, final int trials,
+            final int testLevel, final SplittableRandom master,
+            final int keyLength, final int textLength,
+            final StageReport report) {
+        final LongAdder[] successes = new LongAdder[MAX_LEVEL + 1];
+        for (int i = 0; i < successes.length; i++) {
+            successes[i] = new LongAdder();
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<Void>> results = new ArrayList<Future<Void>>();
+        final long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                // spread the remainder over the first workers
+                final int count = trials / threads
+                        + (i < trials % threads ? 1 : 0);
+                results.add(executor.submit(new Worker(text, count,
+                        testLevel, master.split(), successes, keyLength,
+                        textLength, report)));
+            }
+
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running "
+                    + "trials.");
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Trial failed.", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final long[] counts = new long[successes.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = successes[i].sum();
+        }
+
+        final Summary summary = new Summary(trials, testLevel, counts,
+                System.nanoTime() - start);
+        LOG.info(summary);
+        return summary;
+    }
+
+    /**
+     * A worker that runs a number of trials.
+     */
+    private class Worker implements Callable<Void> {
+        /** Source text. */
+        private final String text;
+        /** Number of trials. */
+        private final int trials;
+        /** How far to go in the check. */
+        private final int testLevel;
+        /** Random number stream of this worker. */
+        private final SplittableRandom random;
+        /** Number of trials that reached each level. */
+        private final LongAdder[] successes;
+        /** Length of the transposition key. */
+        private final int keyLength;
+        /** Number of plain text characters. */
+        private final int textLength;
+        /** Report of the stages, or <code>null</code>. */
+        private final StageReport report;
+
+        public Worker(final String text, final int trials,
+                final int testLevel, final SplittableRandom random,
+                final LongAdder[] successes, final int keyLength,
+                final int textLength, final StageReport report) {
+            this.text = text;
+            this.trials = trials;
+            this.testLevel = testLevel;
+            this.random = random;
+            this.successes = successes;
+            this.keyLength = keyLength;
+            this.textLength = textLength;
+            this.report = report;
+        }
+
+        @Override
+        public Void call() {
+            for (int i = 0; i < trials; i++) {
+                // the analysis takes a Random, seeded from the stream
+                final Random trialRandom = new Random(random.nextLong());
+                final int level = report == null ? analysis.doAnalysis(text,
+                        testLevel, trialRandom) : analysis.doAnalysis(text,
+                        testLevel, trialRandom, keyLength, textLength, report);
+
+                for (int j = 1; j <= level; j++) {
+                    successes[j].increment();
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * Summary of a run of trials.
+     */
+    public static class Summary {
+        /** Number of trials. */
+        private final int trials;
+        /** How far the trials went in the check. */
+        private final int testLevel;
+        /** Number of trials that reached each level. */
+        private final long[] successes;
+        /** Elapsed time in nanoseconds. */
+        private final long nanos;
+
+        public Summary(final int trials, final int testLevel,
+                final long[] successes, final long nanos) {
+            this.trials = trials;
+            this.testLevel = testLevel;
+            this.successes = successes;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Gets the number of trials.
+         * 
+         * @return Number of trials
+         */
+        public int getTrials() {
+            return trials;
+        }
+
+        /**
+         * Gets the number of trials that were correct up to a level.
+         * 
+         * @param level
+         *            Level from 1 to 3
+         * @return Number of successes
+         */
+        public long getSuccesses(final int level) {
+            return successes[level];
+        }
+
+        /**
+         * Gets the number of trials that were correct up to their test level.
+         * 
+         * @return Number of correct trials
+         */
+        public long getCorrect() {
+            return successes[Analysis.getTargetLevel(testLevel)];
+        }
+
+        /**
+         * Gets the number of trials per second.
+         * 
+         * @return Throughput
+         */
+        public double getTrialsPerSecond() {
+            return trials / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuffer buffer = new StringBuffer();
+            buffer.append("Trials: " + trials + ", correct: " + getCorrect());
+
+            for (int i = 1; i <= Analysis.getTargetLevel(testLevel); i++) {
+                buffer.append(", level " + i + ": " + successes[i]);
+            }
+
+            buffer.append(String.format(", %.1f s, %.2f trials/s",
+                    nanos / 1e9, getTrialsPerSecond()));
+            return buffer.toString();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package utils;
+
+/**
+ * Iterates over the permutations of <code>0, ..., n - 1</code> in
+ * lexicographic order without allocating. Every permutation has a rank, its
+ * position in that order, so that a range of ranks can be enumerated on its
+ * own. This allows splitting the enumeration over threads and resuming or
+ * stopping it at any point.
+ * 
+ * @author Ben Ruijl
+ * 
+ */
+public class Permutations {
+    /** Largest n whose number of permutations fits in a long. */
+    public static final int MAX_SIZE = 20;
+
+    /** Current permutation. */
+    private final int[] permutation;
+    /** Rank of the first permutation. */
+    private final long from;
+    /** Rank after the last permutation. */
+    private final long to;
+    /** Rank of the current permutation, or <code>from - 1</code>. */
+    private long rank;
+    /** Smallest index that changed in the last step. */
+    private int changed;
+
+    /**
+     * Creates an iterator over all permutations of <code>n</code> elements.
+     * 
+     * @param n
+     *            Number of elements
+     */
+    public Permutations(final int n) {
+	this(n, 0, factorial(n));
+    }
+
+    /**
+     * Creates an iterator over the permutations with a rank in
+     * <code>[from, to)</code>.
+     * 
+     * @param n
+     *            Number of elements
+     * @param from
+     *            Rank of the first permutation
+     * @param to
+     *            Rank after the last permutation
+     */
+    public Permutations(final int n, final long from, final long to) {
+	if (from < 0 || from > to || to > factorial(n)) {
+	    throw new IllegalArgumentException("Invalid range [" + from + ", "
+		    + to + ") of " + n + "! permutations.");
+	}
+
+	permutation = new int[n];
+	this.from = from;
+	this.to = to;
+	reset();
+    }
+
+    /**
+     * Calculates the number of permutations of <code>n</code> elements.
+     * 
+     * @param n
+     *            Number of elements, at most <code>MAX_SIZE</code>
+     * @return n!
+     */
+    public static long factorial(final int n) {
+	if (n < 0 || n > MAX_SIZE) {
+	    throw new IllegalArgumentException("Cannot count the permutations "
+		    + "of " + n + " elements.");
+	}
+
+	long result = 1;
+	for (int i = 2; i <= n; i++) {
+	    result *= i;
+	}
+
+	return result;
+    }
+
+    /**
+     * Writes the permutation of a given rank.
+     * 
+     * @param rank
+     *            Rank in lexicographic order
+     * @param permutation
+     *            Array to overwrite with the permutation of its length
+     */
+    public static void unrank(long rank, final int[] permutation) {
+	final int n = permutation.length;
+
+	for (int i = 0; i < n; i++) {
+	    permutation[i] = i;
+	}
+
+	// pick the elements in order using the factorial number system
+	for (int i = 0; i < n; i++) {
+	    final long f = factorial(n - 1 - i);
+	    final int pick = i + (int) (rank / f);
+	    rank %= f;
+
+	    final int element = permutation[pick];
+	    System.arraycopy(permutation, i, permutation, i + 1, pick - i);
+	    permutation[i] = element;
+	}
+    }
+
+    /**
+     * Calculates the rank of a permutation.
+     * 
+     * @param permutation
+     *            Permutation of <code>0, ..., n - 1</code>
+     * @return Rank in lexicographic order
+     */
+    public static long rank(final int[] permutation) {
+	final int n = permutation.length;
+	long rank = 0;
+
+	for (int i = 0; i < n; i++) {
+	    // number of smaller elements that come later
+	    int smaller = 0;
+	    for (int j = i + 1; j < n; j++) {
+		if (permutation[j] < permutation[i]) {
+		    smaller++;
+		}
+	    }
+
+	    rank += smaller * factorial(n - 1 - i);
+	}
+
+	return rank;
+    }
+
+    /**
+     * Starts over at the first permutation of the range.
+     */
+    public void reset() {
+	rank = from - 1;
+    }
+
+    /**
+     * Moves to the next permutation.
+     * 
+     * @return False if the range is done
+     */
+    public boolean next() {
+	if (rank + 1 >= to) {
+	    rank = to;
+	    return false;
+	}
+
+	if (++rank == from) {
+	    unrank(from, permutation);
+	    changed = 0;
+	    return true;
+	}
+
+	// find the last ascent, then swap it with the next larger element
+	int i = permutation.length - 2;
+	while (permutation[i] > permutation[i + 1]) {
+	    i--;
+	}
+
+	int j = permutation.length - 1;
+	while (permutation[j] < permutation[i]) {
+	    j--;
+	}
+
+	swap(i, j);
+
+	// the tail is descending, reverse it
+	for (int a = i + 1, b = permutation.length - 1; a < b; a++, b--) {
+	    swap(a, b);
+	}
+
+	changed = i;
+	return true;
+    }
+
+    /**
+     * Swaps two elements of the current permutation.
+     * 
+     * @param i
+     *            First index
+     * @param j
+     *            Second index
+     */
+    private void swap(final int i, final int j) {
+	final int tmp = permutation[i];
+	permutation[i] = permutation[j];
+	permutation[j] = tmp;
+    }
+
+    /**
+     * Gets the current permutation. The array is not copied and changes with
+     * every step.
+     * 
+     * @return Permutation
+     */
+    public int[] get() {
+	return permutation;
+    }
+
+    /**
+     * Gets the rank of the current permutation.
+     * 
+     * @return Rank in lexicographic order
+     */
+    public long getRank() {
+	return rank;
+    }
+
+    /**
+     * Gets the smallest index that changed in the last step. The elements
+     * before it are the same as in the previous permutation.
+     * 
+     * @return Index of the first changed element
+     */
+    public int getChangedIndex() {
+	return changed;
+    }
+}
@@ -1,7 +1,6 @@
 package utils;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -93,17 +92,4 @@ public class Utils {
 	return comp;
     }
 
-    public static <T> void permutate(List<T> a, int n, List<List<T>> result) {
-	if (n == 1) {
-	    result.add(a);
-	    return;
-	}
-
-	for (int i = 0; i < n; i++) {
-	    List<T> b = new ArrayList<T>(a);
-	    Collections.swap(b, i, n - 1);
-	    permutate(b, n - 1, result);
-	}
-    }
-
 }